@@ -18,6 +18,7 @@ package com.example.subscriptions.data
 
 import android.arch.lifecycle.LiveData
 import android.arch.lifecycle.MediatorLiveData
+import android.support.annotation.VisibleForTesting
 import android.util.Log
 import com.android.billingclient.api.Purchase
 import com.example.subscriptions.Constants
@@ -158,92 +159,6 @@ class DataRepository private constructor(
         }
     }
 
-    /**
-     * Merge the previous subscriptions and new subscriptions by looking at on-device purchases.
-     *
-     * We want to return the list of new subscriptions, possibly with some modifications
-     * based on old subscriptions and the on-devices purchases from Google Play Billing.
-     * Old subscriptions should be retained if they are owned by someone else (subAlreadyOwned)
-     * and the purchase token for the subscription is still on this device.
-     */
-    private fun mergeSubscriptionsAndPurchases(
-            oldSubscriptions: List<SubscriptionStatus>?,
-            newSubscriptions: List<SubscriptionStatus>?,
-            purchases: List<Purchase>?
-    ): List<SubscriptionStatus> {
-        return ArrayList<SubscriptionStatus>().apply {
-            if (purchases != null) {
-                // Record which purchases are local and can be managed on this device.
-                updateLocalPurchaseTokens(newSubscriptions, purchases)
-            }
-            if (newSubscriptions != null) {
-                addAll(newSubscriptions)
-            }
-            // Find old subscriptions that are in purchases but not in new subscriptions.
-            if (purchases != null && oldSubscriptions != null) {
-                for (oldSubscription in oldSubscriptions) {
-                    if (oldSubscription.subAlreadyOwned && oldSubscription.isLocalPurchase) {
-                        // This old subscription was previously marked as "already owned" by
-                        // another user. It should be included in the output if the SKU
-                        // and purchase token match their previous value.
-                        for (purchase in purchases) {
-                            if (purchase.skus[0] == oldSubscription.sku &&
-                                    purchase.purchaseToken == oldSubscription.purchaseToken) {
-                                // The old subscription that was already owned subscription should
-                                // be added to the new subscriptions.
-                                // Look through the new subscriptions to see if it is there.
-                                var foundNewSubscription = false
-                                newSubscriptions?.let {
-                                    for (newSubscription in it) {
-                                        if (newSubscription.sku == oldSubscription.sku) {
-                                            foundNewSubscription = true
-                                        }
-                                    }
-                                }
-                                if (!foundNewSubscription) {
-                                    // The old subscription should be added to the output.
-                                    // It matches a local purchase.
-                                    add(oldSubscription)
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-        }
-    }
-
-    /**
-     * Modify the subscriptions isLocalPurchase field based on the list of local purchases.
-     * Return true if any of the values changed.
-     */
-    private fun updateLocalPurchaseTokens(
-            subscriptions: List<SubscriptionStatus>?,
-            purchases: List<Purchase>?
-    ): Boolean {
-        var hasChanged = false
-        subscriptions?.let {
-            for (subscription in it) {
-                var isLocalPurchase = false
-                var purchaseToken = subscription.purchaseToken
-                purchases?.let {
-                    for (purchase in it) {
-                        if (subscription.sku == purchase.skus[0]) {
-                            isLocalPurchase = true
-                            purchaseToken = purchase.purchaseToken
-                        }
-                    }
-                }
-                if (subscription.isLocalPurchase != isLocalPurchase) {
-                    subscription.isLocalPurchase = isLocalPurchase
-                    subscription.purchaseToken = purchaseToken
-                    hasChanged = true
-                }
-            }
-        }
-        return hasChanged
-    }
-
     /**
      * Fetch subscriptions from the server and update local data source.
      */
@@ -303,6 +218,93 @@ class DataRepository private constructor(
                     DataRepository(localDataSource, webDataSource, billingClientLifecycle)
                             .also { INSTANCE = it }
                 }
+
+        /**
+         * Merge the previous subscriptions and new subscriptions by looking at on-device purchases.
+         *
+         * We want to return the list of new subscriptions, possibly with some modifications
+         * based on old subscriptions and the on-devices purchases from Google Play Billing.
+         * Old subscriptions should be retained if they are owned by someone else (subAlreadyOwned)
+         * and the purchase token for the subscription is still on this device.
+         */
+        @VisibleForTesting
+        internal fun mergeSubscriptionsAndPurchases(
+                oldSubscriptions: List<SubscriptionStatus>?,
+                newSubscriptions: List<SubscriptionStatus>?,
+                purchases: List<Purchase>?
+        ): List<SubscriptionStatus> {
+            return ArrayList<SubscriptionStatus>().apply {
+                if (purchases != null) {
+                    // Record which purchases are local and can be managed on this device.
+                    updateLocalPurchaseTokens(newSubscriptions, purchases)
+                }
+                if (newSubscriptions != null) {
+                    addAll(newSubscriptions)
+                }
+                // Find old subscriptions that are in purchases but not in new subscriptions.
+                if (purchases != null && oldSubscriptions != null) {
+                    for (oldSubscription in oldSubscriptions) {
+                        if (oldSubscription.subAlreadyOwned && oldSubscription.isLocalPurchase) {
+                            // This old subscription was previously marked as "already owned" by
+                            // another user. It should be included in the output if the SKU
+                            // and purchase token match their previous value.
+                            for (purchase in purchases) {
+                                if (purchase.skus[0] == oldSubscription.sku &&
+                                        purchase.purchaseToken == oldSubscription.purchaseToken) {
+                                    // The old subscription that was already owned subscription
+                                    // should be added to the new subscriptions.
+                                    // Look through the new subscriptions to see if it is there.
+                                    var foundNewSubscription = false
+                                    newSubscriptions?.let {
+                                        for (newSubscription in it) {
+                                            if (newSubscription.sku == oldSubscription.sku) {
+                                                foundNewSubscription = true
+                                            }
+                                        }
+                                    }
+                                    if (!foundNewSubscription) {
+                                        // The old subscription should be added to the output.
+                                        // It matches a local purchase.
+                                        add(oldSubscription)
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Modify the subscriptions isLocalPurchase field based on the list of local purchases.
+         * Return true if any of the values changed.
+         */
+        private fun updateLocalPurchaseTokens(
+                subscriptions: List<SubscriptionStatus>?,
+                purchases: List<Purchase>?
+        ): Boolean {
+            var hasChanged = false
+            subscriptions?.let {
+                for (subscription in it) {
+                    var isLocalPurchase = false
+                    var purchaseToken = subscription.purchaseToken
+                    purchases?.let {
+                        for (purchase in it) {
+                            if (subscription.sku == purchase.skus[0]) {
+                                isLocalPurchase = true
+                                purchaseToken = purchase.purchaseToken
+                            }
+                        }
+                    }
+                    if (subscription.isLocalPurchase != isLocalPurchase) {
+                        subscription.isLocalPurchase = isLocalPurchase
+                        subscription.purchaseToken = purchaseToken
+                        hasChanged = true
+                    }
+                }
+            }
+            return hasChanged
+        }
     }
 
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2018 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.subscriptions.data
+
+import com.android.billingclient.api.Purchase
+import org.json.JSONObject
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+
+/**
+ * JMH benchmarks for merging server subscriptions with on-device purchases, for purchase lists of
+ * 1 to 10,000 synthetic purchases. Merging never checks signatures, so the purchases
+ * are left unsigned. Run them with SubscriptionBenchmarkRunner.
+ *
+ * JMH generates subclasses of the benchmark state, so the class has to be open.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+open class SubscriptionBenchmark {
+
+    @Param("1", "10", "100", "1000", "10000")
+    var size: Int = 0
+
+    private lateinit var subscriptionMap: Map<String, Any>
+    private lateinit var oldSubscriptions: List<SubscriptionStatus>
+    private lateinit var newSubscriptions: List<SubscriptionStatus>
+    private lateinit var purchases: List<Purchase>
+
+    @Setup
+    fun setUp() {
+        purchases = (0 until size).map { i ->
+            val originalJson = JSONObject()
+                    .put("orderId", "GPA.0000-0000-0000-$i")
+                    .put("productId", sku(i))
+                    .put("purchaseTime", 1600000000000L + i)
+                    .put("purchaseState", 0)
+                    .put("purchaseToken", token(i))
+                    .put("autoRenewing", true)
+                    .put("acknowledged", true)
+                    .toString()
+            Purchase(originalJson, "")
+        }
+        subscriptionMap = mapOf(SubscriptionStatus.SUBSCRIPTIONS_KEY to ArrayList(
+                (0 until size).map { i ->
+                    mapOf<String, Any>(
+                            SubscriptionStatus.SKU_KEY to sku(i),
+                            SubscriptionStatus.PURCHASE_TOKEN_KEY to token(i),
+                            SubscriptionStatus.IS_ENTITLEMENT_ACTIVE_KEY to true,
+                            SubscriptionStatus.WILL_RENEW_KEY to true,
+                            SubscriptionStatus.ACTIVE_UNTIL_MILLISEC_KEY to 1700000000000L + i,
+                            SubscriptionStatus.IS_FREE_TRIAL_KEY to false,
+                            SubscriptionStatus.IS_GRACE_PERIOD_KEY to false,
+                            SubscriptionStatus.IS_ACCOUNT_HOLD_KEY to false,
+                            SubscriptionStatus.IS_PAUSED_KEY to false,
+                            SubscriptionStatus.AUTO_RESUME_TIME_MILLISEC_KEY to 0L
+                    )
+                }))
+        newSubscriptions = SubscriptionStatus.listFromMap(subscriptionMap)!!
+        // every other old subscription is owned by another user, so it has to be matched
+        // against the purchases
+        oldSubscriptions = (0 until size).map { i ->
+            SubscriptionStatus(
+                    sku = sku(i),
+                    purchaseToken = token(i),
+                    subAlreadyOwned = i % 2 == 0,
+                    isLocalPurchase = true
+            )
+        }
+    }
+
+    @Benchmark
+    fun listFromMap(): List<SubscriptionStatus>? =
+            SubscriptionStatus.listFromMap(subscriptionMap)
+
+    @Benchmark
+    fun mergeSubscriptionsAndPurchases(): List<SubscriptionStatus> =
+            DataRepository.mergeSubscriptionsAndPurchases(
+                    oldSubscriptions, newSubscriptions, purchases)
+
+    private fun sku(i: Int) = "sku_$i"
+
+    private fun token(i: Int) = "token_$i"
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2018 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.subscriptions.data
+
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import org.openjdk.jmh.profile.GCProfiler
+import org.openjdk.jmh.runner.Runner
+import org.openjdk.jmh.runner.options.OptionsBuilder
+
+/**
+ * Runs the JMH benchmarks with the GC profiler, which reports the allocation rate alongside the
+ * throughput. The benchmarks take several minutes, so they only run when asked for:
+ *
+ *     ./gradlew testDebugUnitTest -PrunBenchmarks --tests '*SubscriptionBenchmarkRunner'
+ */
+class SubscriptionBenchmarkRunner {
+
+    @Test
+    fun runBenchmarks() {
+        assumeTrue("Benchmarks only run with -PrunBenchmarks",
+                System.getProperty(RUN_BENCHMARKS_PROPERTY)?.toBoolean() == true)
+        val options = OptionsBuilder()
+                .include(SubscriptionBenchmark::class.java.name)
+                // the test classpath isn't visible to forked JVMs
+                .forks(0)
+                .addProfiler(GCProfiler::class.java)
+                .build()
+        Runner(options).run()
+    }
+
+    companion object {
+        const val RUN_BENCHMARKS_PROPERTY = "runBenchmarks"
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sample.android.trivialdrivesample;
+
+import androidx.annotation.DrawableRes;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.StringRes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes what each SKU entitles the player to: whether it is a subscription, whether it is
+ * consumed once purchased, how much gas it grants, which other subscriptions it can be upgraded
+ * from, and the message and icon the UI shows for it. Adding a SKU only takes a new row.
+ * <p>
+ * Every lookup is precomputed when the table is built. A SKU is mapped to its row once, and each
+ * property is then read from an array indexed by that row, so evaluating a purchase event costs
+ * the same no matter how large the catalog is.
+ */
+public final class EntitlementTable {
+    /**
+     * The gas granted by SKUs, such as subscriptions, that keep the tank full for as long as they
+     * are held.
+     */
+    public static final int INFINITE_GAS = Integer.MAX_VALUE;
+    /**
+     * The upgrade group of SKUs that can't be upgraded from any other SKU.
+     */
+    public static final int NO_UPGRADE_GROUP = -1;
+
+    private static final String[] NO_SKUS = new String[0];
+
+    /**
+     * A row of the table.
+     */
+    public static final class Entry {
+        final String sku;
+        final boolean subscription;
+        final boolean consumable;
+        final int gasGranted;
+        final int upgradeGroup;
+        @StringRes
+        final int messageResId;
+        @DrawableRes
+        final int iconResId;
+
+        /**
+         * @param sku          the product ID
+         * @param subscription whether the SKU is a subscription rather than an in-app product
+         * @param consumable   whether the SKU is consumed as soon as it is purchased
+         * @param gasGranted   the units of gas the SKU grants, or INFINITE_GAS
+         * @param upgradeGroup subscriptions in the same group can be upgraded from each other, or
+         *                     NO_UPGRADE_GROUP
+         * @param messageResId the message shown when the SKU is purchased
+         * @param iconResId    the icon shown for the SKU in the store
+         */
+        public Entry(@NonNull String sku, boolean subscription, boolean consumable,
+                int gasGranted, int upgradeGroup, @StringRes int messageResId,
+                @DrawableRes int iconResId) {
+            this.sku = sku;
+            this.subscription = subscription;
+            this.consumable = consumable;
+            this.gasGranted = gasGranted;
+            this.upgradeGroup = upgradeGroup;
+            this.messageResId = messageResId;
+            this.iconResId = iconResId;
+        }
+    }
+
+    private final Map<String, Integer> skuToRow;
+    private final boolean[] subscription;
+    private final boolean[] consumable;
+    private final int[] gasGranted;
+    private final int[] messageResIds;
+    private final int[] iconResIds;
+    // for each row, the other SKUs in its upgrade group
+    private final String[][] upgradeSkus;
+    private final String[] inappSkus;
+    private final String[] subscriptionSkus;
+    private final String[] autoConsumeSkus;
+    private final String[] infiniteGasSkus;
+
+    /**
+     * @param entries one row per SKU
+     * @throws IllegalArgumentException if a SKU appears more than once
+     */
+    public EntitlementTable(@NonNull Entry... entries) {
+        final int rows = entries.length;
+        skuToRow = new HashMap<>(rows * 2);
+        subscription = new boolean[rows];
+        consumable = new boolean[rows];
+        gasGranted = new int[rows];
+        messageResIds = new int[rows];
+        iconResIds = new int[rows];
+        upgradeSkus = new String[rows][];
+        List<String> inapp = new ArrayList<>();
+        List<String> subs = new ArrayList<>();
+        List<String> autoConsume = new ArrayList<>();
+        List<String> infiniteGas = new ArrayList<>();
+        Map<Integer, List<String>> upgradeGroups = new HashMap<>();
+        for (int row = 0; row < rows; row++) {
+            Entry entry = entries[row];
+            if (null != skuToRow.put(entry.sku, row)) {
+                throw new IllegalArgumentException("Duplicate SKU: " + entry.sku);
+            }
+            subscription[row] = entry.subscription;
+            consumable[row] = entry.consumable;
+            gasGranted[row] = entry.gasGranted;
+            messageResIds[row] = entry.messageResId;
+            iconResIds[row] = entry.iconResId;
+            (entry.subscription ? subs : inapp).add(entry.sku);
+            if (entry.consumable) {
+                autoConsume.add(entry.sku);
+            }
+            if (INFINITE_GAS == entry.gasGranted) {
+                infiniteGas.add(entry.sku);
+            }
+            if (NO_UPGRADE_GROUP != entry.upgradeGroup) {
+                List<String> group = upgradeGroups.get(entry.upgradeGroup);
+                if (null == group) {
+                    group = new ArrayList<>();
+                    upgradeGroups.put(entry.upgradeGroup, group);
+                }
+                group.add(entry.sku);
+            }
+        }
+        for (int row = 0; row < rows; row++) {
+            List<String> group = upgradeGroups.get(entries[row].upgradeGroup);
+            if (null == group) {
+                upgradeSkus[row] = NO_SKUS;
+                continue;
+            }
+            List<String> others = new ArrayList<>(group);
+            others.remove(entries[row].sku);
+            upgradeSkus[row] = others.toArray(NO_SKUS);
+        }
+        inappSkus = inapp.toArray(NO_SKUS);
+        subscriptionSkus = subs.toArray(NO_SKUS);
+        autoConsumeSkus = autoConsume.toArray(NO_SKUS);
+        infiniteGasSkus = infiniteGas.toArray(NO_SKUS);
+    }
+
+    /**
+     * @return the row of a SKU, or -1 if the SKU isn't in the table
+     */
+    public int getRow(@Nullable String sku) {
+        Integer row = skuToRow.get(sku);
+        return null == row ? -1 : row;
+    }
+
+    /**
+     * @return whether the SKU in the row is a subscription; false for unknown SKUs
+     */
+    public boolean isSubscription(int row) {
+        return row >= 0 && subscription[row];
+    }
+
+    /**
+     * @return whether the SKU in the row is consumed as soon as it is purchased; false for unknown
+     * SKUs
+     */
+    public boolean isConsumable(int row) {
+        return row >= 0 && consumable[row];
+    }
+
+    /**
+     * @return the units of gas the SKU in the row grants, INFINITE_GAS, or 0 for unknown SKUs
+     */
+    public int getGasGranted(int row) {
+        return row < 0 ? 0 : gasGranted[row];
+    }
+
+    /**
+     * @return the message shown when the SKU in the row is purchased, or 0 for unknown SKUs
+     */
+    @StringRes
+    public int getMessageResId(int row) {
+        return row < 0 ? 0 : messageResIds[row];
+    }
+
+    /**
+     * @return the store icon of the SKU in the row, or 0 for unknown SKUs
+     */
+    @DrawableRes
+    public int getIconResId(int row) {
+        return row < 0 ? 0 : iconResIds[row];
+    }
+
+    /**
+     * @return the SKUs the SKU in the row can be upgraded from; empty for unknown SKUs. The
+     * returned array must not be modified.
+     */
+    @NonNull
+    public String[] getUpgradeSkus(int row) {
+        return row < 0 ? NO_SKUS : upgradeSkus[row];
+    }
+
+    /**
+     * @return every in-app product SKU. The returned array must not be modified.
+     */
+    @NonNull
+    public String[] getInappSkus() {
+        return inappSkus;
+    }
+
+    /**
+     * @return every subscription SKU. The returned array must not be modified.
+     */
+    @NonNull
+    public String[] getSubscriptionSkus() {
+        return subscriptionSkus;
+    }
+
+    /**
+     * @return every SKU that is consumed as soon as it is purchased. The returned array must not be
+     * modified.
+     */
+    @NonNull
+    public String[] getAutoConsumeSkus() {
+        return autoConsumeSkus;
+    }
+
+    /**
+     * @return every SKU that grants INFINITE_GAS. The returned array must not be modified.
+     */
+    @NonNull
+    public String[] getInfiniteGasSkus() {
+        return infiniteGasSkus;
+    }
+}
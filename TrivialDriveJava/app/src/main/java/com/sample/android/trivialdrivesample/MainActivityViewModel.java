@@ -21,6 +21,10 @@ import androidx.lifecycle.LiveData;
 import androidx.lifecycle.ViewModel;
 import androidx.lifecycle.ViewModelProvider;
 
+import com.sample.android.trivialdrivesample.ui.MessageAggregator;
+
+import java.util.List;
+
 /*
     This is used for any business logic, as well as to echo LiveData from the BillingRepository.
  */
@@ -32,7 +36,7 @@ public class MainActivityViewModel extends ViewModel {
         tdr = trivialDriveRepository;
     }
 
-    public LiveData<Integer> getMessages() {
+    public LiveData<List<MessageAggregator.Message>> getMessages() {
         return tdr.getMessages();
     }
 
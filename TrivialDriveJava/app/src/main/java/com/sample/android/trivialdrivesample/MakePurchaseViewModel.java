@@ -15,11 +15,6 @@
  */
 package com.sample.android.trivialdrivesample;
 
-import static com.sample.android.trivialdrivesample.TrivialDriveRepository.SKU_GAS;
-import static com.sample.android.trivialdrivesample.TrivialDriveRepository.SKU_INFINITE_GAS_MONTHLY;
-import static com.sample.android.trivialdrivesample.TrivialDriveRepository.SKU_INFINITE_GAS_YEARLY;
-import static com.sample.android.trivialdrivesample.TrivialDriveRepository.SKU_PREMIUM;
-
 import android.app.Activity;
 
 import androidx.annotation.NonNull;
@@ -35,16 +30,12 @@ import java.util.Map;
  */
 public class MakePurchaseViewModel extends ViewModel {
     static final String TAG = MakePurchaseViewModel.class.getSimpleName();
-    static final private Map<String, Integer> skuToResourceIdMap = new HashMap<>();
-
-    static {
-        skuToResourceIdMap.put(SKU_GAS, R.drawable.buy_gas);
-        skuToResourceIdMap.put(SKU_PREMIUM, R.drawable.upgrade_app);
-        skuToResourceIdMap.put(SKU_INFINITE_GAS_MONTHLY, R.drawable.get_infinite_gas);
-        skuToResourceIdMap.put(SKU_INFINITE_GAS_YEARLY, R.drawable.get_infinite_gas);
-    }
 
     private final TrivialDriveRepository tdr;
+    // Data binding asks for these on every bind, so each SKU's LiveData are built once and shared
+    // for the life of the ViewModel.
+    private final Map<String, SkuDetails> skuDetailsMap = new HashMap<>();
+    private final Map<String, LiveData<Boolean>> canBuySkuMap = new HashMap<>();
 
     public MakePurchaseViewModel(@NonNull TrivialDriveRepository trivialDriveRepository) {
         super();
@@ -52,15 +43,27 @@ public class MakePurchaseViewModel extends ViewModel {
     }
 
     public SkuDetails getSkuDetails(String sku) {
-        return new SkuDetails(sku, tdr);
+        SkuDetails skuDetails = skuDetailsMap.get(sku);
+        if (null == skuDetails) {
+            skuDetails = new SkuDetails(sku, tdr);
+            skuDetailsMap.put(sku, skuDetails);
+        }
+        return skuDetails;
     }
 
     public LiveData<Boolean> canBuySku(String sku) {
-        return tdr.canPurchase(sku);
+        LiveData<Boolean> canBuySku = canBuySkuMap.get(sku);
+        if (null == canBuySku) {
+            canBuySku = tdr.canPurchase(sku);
+            canBuySkuMap.put(sku, canBuySku);
+        }
+        return canBuySku;
     }
 
     public LiveData<Boolean> isPurchased(String sku) { return tdr.isPurchased(sku); }
 
+    public boolean isSubscription(String sku) { return tdr.isSubscription(sku); }
+
     /**
      * Starts a billing flow for purchasing gas.
      *
@@ -90,7 +93,7 @@ public class MakePurchaseViewModel extends ViewModel {
             title = tdr.getSkuTitle(sku);
             description = tdr.getSkuDescription(sku);
             price = tdr.getSkuPrice(sku);
-            iconDrawableId = skuToResourceIdMap.get(sku);
+            iconDrawableId = tdr.getSkuIconResId(sku);
         }
     }
 
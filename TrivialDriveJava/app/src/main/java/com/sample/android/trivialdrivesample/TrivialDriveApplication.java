@@ -18,6 +18,8 @@ package com.sample.android.trivialdrivesample;
 
 import android.app.Application;
 
+import androidx.lifecycle.ProcessLifecycleOwner;
+
 import com.sample.android.trivialdrivesample.billing.BillingDataSource;
 import com.sample.android.trivialdrivesample.db.GameStateModel;
 
@@ -31,7 +33,13 @@ public class TrivialDriveApplication extends Application {
                 TrivialDriveApplication.this,
                 TrivialDriveRepository.INAPP_SKUS,
                 TrivialDriveRepository.SUBSCRIPTION_SKUS,
-                TrivialDriveRepository.AUTO_CONSUME_SKUS);
+                TrivialDriveRepository.AUTO_CONSUME_SKUS,
+                // This should be YOUR APPLICATION PUBLIC KEY. You currently get this from the
+                // Google Play developer console under the "Monetization Setup" category in the
+                // Licensing area. This build has been setup so that if you define
+                // base64EncodedPublicKey in your local.properties, it will be echoed into
+                // BuildConfig.
+                BuildConfig.BASE64_ENCODED_PUBLIC_KEY);
         final public TrivialDriveRepository trivialDriveRepository = new TrivialDriveRepository(
                 billingDataSource,
                 gameStateModel);
@@ -41,5 +49,7 @@ public class TrivialDriveApplication extends Application {
     public void onCreate() {
         super.onCreate();
         appContainer = new AppContainer();
+        // Writes the game state out whenever the app goes into the background
+        ProcessLifecycleOwner.get().getLifecycle().addObserver(appContainer.gameStateModel);
     }
 }
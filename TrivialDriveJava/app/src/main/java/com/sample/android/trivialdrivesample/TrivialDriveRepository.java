@@ -17,7 +17,9 @@ package com.sample.android.trivialdrivesample;
 
 import android.app.Activity;
 import android.util.Log;
+import android.view.Choreographer;
 
+import androidx.annotation.MainThread;
 import androidx.lifecycle.LifecycleObserver;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MediatorLiveData;
@@ -25,7 +27,7 @@ import androidx.lifecycle.Observer;
 
 import com.sample.android.trivialdrivesample.billing.BillingDataSource;
 import com.sample.android.trivialdrivesample.db.GameStateModel;
-import com.sample.android.trivialdrivesample.ui.SingleMediatorLiveEvent;
+import com.sample.android.trivialdrivesample.ui.MessageAggregator;
 
 import java.util.List;
 import java.util.concurrent.ExecutorService;
@@ -49,102 +51,150 @@ public class TrivialDriveRepository {
     static final public String SKU_INFINITE_GAS_MONTHLY = "infinite_gas_monthly";
     static final public String SKU_INFINITE_GAS_YEARLY = "infinite_gas_yearly";
     static final String TAG = "TrivialDrive:" + TrivialDriveRepository.class.getSimpleName();
-    static final String[] INAPP_SKUS = new String[]{SKU_PREMIUM, SKU_GAS};
-    static final String[] SUBSCRIPTION_SKUS = new String[]{SKU_INFINITE_GAS_MONTHLY,
-            SKU_INFINITE_GAS_YEARLY};
-    static final String[] AUTO_CONSUME_SKUS = new String[]{SKU_GAS};
+    // upgrade group of the infinite gas subscriptions
+    static final private int UPGRADE_GROUP_INFINITE_GAS = 0;
+    // What each SKU does in the game. Everything else about a SKU is looked up from this table.
+    static final EntitlementTable ENTITLEMENTS = new EntitlementTable(
+            // SKU, subscription, consumable, gas granted, upgrade group, message, icon
+            new EntitlementTable.Entry(SKU_GAS, false, true, 1,
+                    EntitlementTable.NO_UPGRADE_GROUP, R.string.message_more_gas_acquired,
+                    R.drawable.buy_gas),
+            new EntitlementTable.Entry(SKU_PREMIUM, false, false, 0,
+                    EntitlementTable.NO_UPGRADE_GROUP, R.string.message_premium,
+                    R.drawable.upgrade_app),
+            new EntitlementTable.Entry(SKU_INFINITE_GAS_MONTHLY, true, false,
+                    EntitlementTable.INFINITE_GAS, UPGRADE_GROUP_INFINITE_GAS,
+                    R.string.message_subscribed, R.drawable.get_infinite_gas),
+            new EntitlementTable.Entry(SKU_INFINITE_GAS_YEARLY, true, false,
+                    EntitlementTable.INFINITE_GAS, UPGRADE_GROUP_INFINITE_GAS,
+                    R.string.message_subscribed, R.drawable.get_infinite_gas)
+    );
+    static final String[] INAPP_SKUS = ENTITLEMENTS.getInappSkus();
+    static final String[] SUBSCRIPTION_SKUS = ENTITLEMENTS.getSubscriptionSkus();
+    static final String[] AUTO_CONSUME_SKUS = ENTITLEMENTS.getAutoConsumeSkus();
 
     final BillingDataSource billingDataSource;
     final GameStateModel gameStateModel;
-    final SingleMediatorLiveEvent<Integer> gameMessages;
-    final SingleMediatorLiveEvent<Integer> allMessages = new SingleMediatorLiveEvent<>();
+    final MessageAggregator allMessages = new MessageAggregator();
     final ExecutorService driveExecutor = Executors.newSingleThreadExecutor();
+    // the gas tank level combined with the subscription state, shared by every caller; created
+    // the first time it is asked for
+    private LiveData<Integer> gasTankLevel;
+    // drives requested since the last frame; only touched on the main thread
+    private int pendingDrives = 0;
+    private boolean driveFrameScheduled = false;
+    private final Choreographer.FrameCallback driveFrameCallback = frameTimeNanos -> flushDrives();
 
     public TrivialDriveRepository(BillingDataSource billingDataSource,
             GameStateModel gameStateModel) {
         this.billingDataSource = billingDataSource;
         this.gameStateModel = gameStateModel;
 
-        gameMessages = new SingleMediatorLiveEvent<>();
-        setupMessagesSingleMediatorLiveEvent();
+        setupMessages();
 
-        // Since both are tied to application lifecycle
-        billingDataSource.observeConsumedPurchases().observeForever(skuList -> {
-            for ( String sku: skuList ) {
-                if (sku.equals(SKU_GAS)) {
-                    gameStateModel.incrementGas(GAS_TANK_MAX);
+        // Since both are tied to application lifecycle. Gas purchases consumed together are
+        // granted in a single update.
+        billingDataSource.observeConsumedPurchases().subscribe(purchases -> {
+            int gasGranted = 0;
+            for (List<String> skuList : purchases) {
+                for ( String sku: skuList ) {
+                    int row = ENTITLEMENTS.getRow(sku);
+                    if (ENTITLEMENTS.isConsumable(row)) {
+                        // the tank never holds more than GAS_TANK_MAX, so this can't overflow
+                        gasGranted = Math.min(GAS_TANK_MAX,
+                                gasGranted + ENTITLEMENTS.getGasGranted(row));
+                    }
                 }
             }
+            if (gasGranted > 0) {
+                gameStateModel.addGas(gasGranted, GAS_TANK_MAX);
+            }
         });
     }
 
     /**
-     * Sets up the event that we can use to send messages up to the UI to be used in Snackbars. This
-     * SingleMediatorLiveEvent observes changes in SingleLiveEvents coming from the rest of the game
-     * and combines them into a single source with new purchase events from the BillingDataSource.
-     * Since the billing data source doesn't know about our SKUs, it also transforms the known SKU
-     * strings into useful String messages.
+     * Sets up the messages that we send up to the UI to be used in Snackbars. Messages from the
+     * rest of the game are combined with new purchase events from the BillingDataSource in a
+     * MessageAggregator, so a multi-line purchase shows up as a single summary. Since the billing
+     * data source doesn't know about our SKUs, this also transforms the known SKU strings into
+     * useful String messages, as described by ENTITLEMENTS.
      */
-    void setupMessagesSingleMediatorLiveEvent() {
-        final LiveData<List<String>> billingMessages = billingDataSource.observeNewPurchases();
-        allMessages.addSource(gameMessages, allMessages::setValue);
-        allMessages.addSource(billingMessages,
-                stringList -> {
-            // TODO: Handle multi-line purchases better
-            for (String s: stringList) {
-                    switch (s) {
-                        case SKU_GAS:
-                            allMessages.setValue(R.string.message_more_gas_acquired);
-                            break;
-                        case SKU_PREMIUM:
-                            allMessages.setValue(R.string.message_premium);
-                            break;
-                        case SKU_INFINITE_GAS_MONTHLY:
-                        case SKU_INFINITE_GAS_YEARLY:
-                            // this makes sure that upgraded and downgraded subscriptions are
-                            // reflected correctly in the app UI
-                            billingDataSource.refreshPurchasesAsync();
-                            allMessages.setValue(R.string.message_subscribed);
-                            break;
+    void setupMessages() {
+        billingDataSource.observeNewPurchases().subscribe(purchases -> {
+            boolean subscriptionChanged = false;
+            for (List<String> stringList : purchases) {
+                for (String s : stringList) {
+                    int row = ENTITLEMENTS.getRow(s);
+                    if (row < 0) {
+                        continue;
+                    }
+                    if (ENTITLEMENTS.isSubscription(row)) {
+                        subscriptionChanged = true;
                     }
+                    allMessages.add(ENTITLEMENTS.getMessageResId(row));
                 }
+            }
+            if (subscriptionChanged) {
+                // this makes sure that upgraded and downgraded subscriptions are
+                // reflected correctly in the app UI
+                billingDataSource.refreshPurchasesAsync();
+            }
         });
     }
 
     /**
-     * Drive the car (if we can). This is an asynchronous operation.
+     * Drive the car (if we can). This is an asynchronous operation. Drives requested within the
+     * same frame are collapsed into a single update of the gas tank, and a single message.
      */
+    @MainThread
     public void drive() {
-        // We run this all on a background thread since we're not using a LiveData observable
-        // to get the gas level and want to avoid doing database queries on the main thread.
+        pendingDrives++;
+        if (!driveFrameScheduled) {
+            driveFrameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(driveFrameCallback);
+        }
+    }
+
+    @MainThread
+    private void flushDrives() {
+        final int drives = pendingDrives;
+        pendingDrives = 0;
+        driveFrameScheduled = false;
         final LiveData<Integer> gasTankLevelLiveData = gasTankLevel();
+        // while the game screen observes the gas tank level, its value is current
+        Integer currentGasLevel = gasTankLevelLiveData.getValue();
+        if (gasTankLevelLiveData.hasActiveObservers() && null != currentGasLevel) {
+            driveWithGasLevel(drives, currentGasLevel);
+            return;
+        }
         gasTankLevelLiveData.observeForever(
                 new Observer<Integer>() {
             @Override
             public void onChanged(Integer gasLevel) {
                 if ( null == gasLevel ) return;
-                switch (gasLevel) {
-                    case TrivialDriveRepository.GAS_TANK_INFINITE:
-                        // We never use gas in the tank if we have a subscription
-                        sendMessage(R.string.message_infinite_drive);
-                        break;
-                    case TrivialDriveRepository.GAS_TANK_MIN:
-                        sendMessage(R.string.message_out_of_gas);
-                        break;
-                    case TrivialDriveRepository.GAS_TANK_MIN + 1:
-                        gameStateModel.decrementGas(GAS_TANK_MIN);
-                        sendMessage(R.string.message_out_of_gas);
-                        break;
-                    default:
-                        gameStateModel.decrementGas(GAS_TANK_MIN);
-                        sendMessage(R.string.message_you_drove);
-                        break;
-                }
+                driveWithGasLevel(drives, gasLevel);
                 gasTankLevelLiveData.removeObserver(this);
             }
         });
     }
 
+    private void driveWithGasLevel(int drives, int gasLevel) {
+        if (TrivialDriveRepository.GAS_TANK_INFINITE == gasLevel) {
+            // We never use gas in the tank if we have a subscription
+            sendMessage(R.string.message_infinite_drive);
+            return;
+        }
+        // the level read above may already be stale, so the message comes from the level the
+        // update leaves behind
+        gameStateModel.useGas(drives, GAS_TANK_MIN, (used, newGasLevel) -> {
+            if (!used || TrivialDriveRepository.GAS_TANK_MIN == newGasLevel) {
+                sendMessage(R.string.message_out_of_gas);
+            } else {
+                sendMessage(R.string.message_you_drove);
+            }
+        });
+    }
+
     /**
      * Automatic support for upgrading/downgrading subscription.
      *
@@ -152,20 +202,24 @@ public class TrivialDriveRepository {
      * @param sku the product ID to purchase
      */
     public void buySku(Activity activity, String sku) {
-        String oldSku = null;
-        switch (sku) {
-            case SKU_INFINITE_GAS_MONTHLY:
-                oldSku = SKU_INFINITE_GAS_YEARLY;
-                break;
-            case SKU_INFINITE_GAS_YEARLY:
-                oldSku = SKU_INFINITE_GAS_MONTHLY;
-                break;
-        }
-        if ( null != oldSku ) {
-            billingDataSource.launchBillingFlow(activity, sku, oldSku);
-        } else {
-            billingDataSource.launchBillingFlow(activity, sku);
-        }
+        billingDataSource.launchBillingFlow(activity, sku,
+                ENTITLEMENTS.getUpgradeSkus(ENTITLEMENTS.getRow(sku)));
+    }
+
+    /**
+     * @param sku the product ID
+     * @return true if the sku is a subscription
+     */
+    public boolean isSubscription(String sku) {
+        return ENTITLEMENTS.isSubscription(ENTITLEMENTS.getRow(sku));
+    }
+
+    /**
+     * @param sku the product ID
+     * @return the drawable resource of the icon shown for the sku in the store
+     */
+    public int getSkuIconResId(String sku) {
+        return ENTITLEMENTS.getIconResId(ENTITLEMENTS.getRow(sku));
     }
 
     /**
@@ -192,7 +246,7 @@ public class TrivialDriveRepository {
     }
 
     /**
-     * We can buy if we have at least one unit of gas and a purchase isn't in progress. For other
+     * We can buy gas if the tank isn't full and a purchase isn't in progress. For other
      * skus, we can purchase them if they aren't already purchased. For subscriptions, only one of
      * the two should be held at a time, although that is only enforced by business logic.
      *
@@ -200,36 +254,33 @@ public class TrivialDriveRepository {
      * @return LiveData that returns true if the sku can be purchased
      */
     public LiveData<Boolean> canPurchase(String sku) {
-        switch (sku) {
-            case SKU_GAS: {
-                final MediatorLiveData<Boolean> result = new MediatorLiveData<>();
-                final LiveData<Integer> gasTankLevel = gasTankLevel();
-                final LiveData<Boolean> canPurchaseSku = billingDataSource.canPurchase(sku);
-                result.addSource(gasTankLevel, level ->
-                        combineGasAndCanPurchaseData(result, gasTankLevel, canPurchaseSku));
-                result.addSource(canPurchaseSku, canPurchase ->
-                        combineGasAndCanPurchaseData(result, gasTankLevel, canPurchaseSku));
-                return result;
-            }
-            default:
-                return billingDataSource.canPurchase(sku);
+        int row = ENTITLEMENTS.getRow(sku);
+        if (!ENTITLEMENTS.isConsumable(row) || 0 == ENTITLEMENTS.getGasGranted(row)) {
+            return billingDataSource.canPurchase(sku);
         }
+        final MediatorLiveData<Boolean> result = new MediatorLiveData<>();
+        final LiveData<Integer> gasTankLevel = gasTankLevel();
+        final LiveData<Boolean> canPurchaseSku = billingDataSource.canPurchase(sku);
+        result.addSource(gasTankLevel, level ->
+                combineGasAndCanPurchaseData(result, gasTankLevel, canPurchaseSku));
+        result.addSource(canPurchaseSku, canPurchase ->
+                combineGasAndCanPurchaseData(result, gasTankLevel, canPurchaseSku));
+        return result;
     }
 
     private void combineGasAndSubscriptionData(
             MediatorLiveData<Integer> result,
             LiveData<Integer> gasTankLevel,
-            LiveData<Boolean> monthlySubscription,
-            LiveData<Boolean> yearlySubscription
+            LiveData<Boolean>[] subscriptions
     ) {
-        Boolean isMonthlySubscription = monthlySubscription.getValue();
-        Boolean isYearlySubscription = yearlySubscription.getValue();
-        if (
-            null == isMonthlySubscription ||
-            null == isYearlySubscription
-        ) return; // do not emit
-
-        if (isMonthlySubscription || isYearlySubscription) {
+        boolean isSubscribed = false;
+        for (LiveData<Boolean> subscription : subscriptions) {
+            Boolean isSubscription = subscription.getValue();
+            if (null == isSubscription) return; // do not emit
+            isSubscribed |= isSubscription;
+        }
+
+        if (isSubscribed) {
             result.setValue(GAS_TANK_INFINITE);
         } else {
             Integer gasTankLevelValue = gasTankLevel.getValue();
@@ -240,25 +291,34 @@ public class TrivialDriveRepository {
 
     /**
      * Combine the results from our subscription LiveData with our gas tank level to get our real
-     * gas tank level.
+     * gas tank level. Every caller shares the same LiveData, which only follows the gas tank and
+     * subscriptions while it is observed.
      *
      * @return LiveData that represents the gasTankLevel by game logic.
      */
-    public LiveData<Integer> gasTankLevel() {
+    public synchronized LiveData<Integer> gasTankLevel() {
+        if (null == gasTankLevel) {
+            gasTankLevel = combineGasAndSubscriptions();
+        }
+        return gasTankLevel;
+    }
+
+    private LiveData<Integer> combineGasAndSubscriptions() {
         final MediatorLiveData<Integer> result = new MediatorLiveData<>();
         final LiveData<Integer> gasTankLevel = gameStateModel.gasTankLevel();
-        final LiveData<Boolean> monthlySubPurchased = isPurchased(SKU_INFINITE_GAS_MONTHLY);
-        final LiveData<Boolean> yearlySubPurchased = isPurchased(SKU_INFINITE_GAS_YEARLY);
+        final String[] infiniteGasSkus = ENTITLEMENTS.getInfiniteGasSkus();
+        @SuppressWarnings("unchecked")
+        final LiveData<Boolean>[] subPurchased = new LiveData[infiniteGasSkus.length];
+        for (int i = 0; i < infiniteGasSkus.length; i++) {
+            subPurchased[i] = isPurchased(infiniteGasSkus[i]);
+        }
 
         result.addSource(gasTankLevel, level ->
-                combineGasAndSubscriptionData(result, gasTankLevel,
-                        monthlySubPurchased, yearlySubPurchased));
-        result.addSource(monthlySubPurchased, subPurchased ->
-                combineGasAndSubscriptionData(result, gasTankLevel,
-                        monthlySubPurchased, yearlySubPurchased));
-        result.addSource(yearlySubPurchased, subPurchased ->
-                combineGasAndSubscriptionData(result, gasTankLevel,
-                        monthlySubPurchased, yearlySubPurchased));
+                combineGasAndSubscriptionData(result, gasTankLevel, subPurchased));
+        for (LiveData<Boolean> purchased : subPurchased) {
+            result.addSource(purchased, isPurchased ->
+                    combineGasAndSubscriptionData(result, gasTankLevel, subPurchased));
+        }
         return result;
     }
 
@@ -284,12 +344,12 @@ public class TrivialDriveRepository {
         return billingDataSource.getSkuDescription(sku);
     }
 
-    public final LiveData<Integer> getMessages() {
-        return allMessages;
+    public final LiveData<List<MessageAggregator.Message>> getMessages() {
+        return allMessages.getSummaries();
     }
 
     public final void sendMessage(int resId) {
-        gameMessages.postValue(resId);
+        allMessages.post(resId);
     }
 
     public final LiveData<Boolean> getBillingFlowInProcess() {
@@ -16,40 +16,116 @@
 package com.sample.android.trivialdrivesample.db;
 
 import android.app.Application;
+import android.util.Log;
 
+import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleObserver;
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.OnLifecycleEvent;
 import androidx.room.Room;
 
-import java.util.concurrent.ExecutorService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-public class GameStateModel {
+/**
+ * Holds the game state. The values are kept in memory, which is the authoritative copy: every
+ * change is applied there and published to observers straight away, and the database is written
+ * behind it. Changes made close together are coalesced into a single write, at most
+ * FLUSH_DELAY_MILLISECONDS after the first of them, and everything still pending is written when
+ * the app is stopped.
+ * <p>
+ * Register the model with the process lifecycle so that it gets ON_STOP.
+ */
+public class GameStateModel implements LifecycleObserver {
+    static final private String TAG = "TrivialDrive:" + GameStateModel.class.getSimpleName();
+    static final private long FLUSH_DELAY_MILLISECONDS = 2000L;
+    // how long the main thread waits for the flush on stop, well short of an ANR
+    static final private long FLUSH_TIMEOUT_MILLISECONDS = 1000L;
+    final GameStateDatabase db;
     final GameStateDao gameStateDao;
-    final ExecutorService queryExecutor = Executors.newSingleThreadExecutor();
+    // every read and write of the in-memory state happens on this thread
+    final ScheduledExecutorService queryExecutor = Executors.newSingleThreadScheduledExecutor();
     final static private String GAS_LEVEL = "gas";
-    final LiveData<Integer> gasTankLevel;
+    final MutableLiveData<Integer> gasTankLevel = new MutableLiveData<>();
+    // the game state, keyed like the GameState table; values are loaded the first time they are
+    // needed
+    private final Map<String, Integer> values = new HashMap<>();
+    // keys that have changed since the last flush
+    private final Set<String> dirtyKeys = new HashSet<>();
+    private boolean flushScheduled = false;
 
     public GameStateModel(@NonNull Application application) {
         // This creates our DB and populates our game state database with the initial state of
         // a full tank
-        GameStateDatabase db = Room.databaseBuilder(application,
+        db = Room.databaseBuilder(application,
                 GameStateDatabase.class, "GameState.db")
                 .createFromAsset("database/initialgamestate.db")
                 .build();
         gameStateDao = db.gameStateDao();
-        gasTankLevel = gameStateDao.observe(GAS_LEVEL);
+        queryExecutor.submit(() -> {
+            gasTankLevel.postValue(get(GAS_LEVEL));
+        });
     }
 
-    public void decrementGas(int minLevel) {
+    /**
+     * Receives the result of useGas.
+     */
+    public interface GasUsedListener {
+        /**
+         * @param used     whether any gas was taken from the tank
+         * @param gasLevel the gas level once the gas has been used
+         */
+        void onGasUsed(boolean used, int gasLevel);
+    }
+
+    /**
+     * Uses several units of gas with a single conditional update, such as for a burst of drives.
+     * The update and the read of the resulting level happen together on the query thread, so the
+     * listener always sees the level the update left behind.
+     *
+     * @param amount   the units of gas to use
+     * @param minLevel the level the tank is drained to at most
+     * @param listener receives the result on the query thread
+     */
+    public void useGas(int amount, int minLevel, @NonNull GasUsedListener listener) {
         queryExecutor.submit(() -> {
-            gameStateDao.decrement(GAS_LEVEL, minLevel);
+            Integer gasLevel = get(GAS_LEVEL);
+            if (null == gasLevel) {
+                listener.onGasUsed(false, minLevel);
+                return;
+            }
+            boolean used = gasLevel > minLevel;
+            if (used) {
+                gasLevel = Math.max(gasLevel - amount, minLevel);
+                set(GAS_LEVEL, gasLevel);
+            }
+            listener.onGasUsed(used, gasLevel);
         });
     }
 
-    public void incrementGas(int maxLevel) {
+    /**
+     * Adds several units of gas in a single update, such as for a batch of gas purchases.
+     *
+     * @param amount   the units of gas to add
+     * @param maxLevel the level the tank is filled to at most
+     */
+    public void addGas(int amount, int maxLevel) {
         queryExecutor.submit(() -> {
-            gameStateDao.increment(GAS_LEVEL, maxLevel);
+            Integer gasLevel = get(GAS_LEVEL);
+            if (null != gasLevel && gasLevel < maxLevel) {
+                set(GAS_LEVEL, Math.min(gasLevel + amount, maxLevel));
+            }
         });
     }
 
@@ -57,7 +133,72 @@ public class GameStateModel {
         return gasTankLevel;
     }
 
-    public Integer getCurrentGasTankLevel() {
-        return gameStateDao.get(GAS_LEVEL);
+    /**
+     * Writes every pending change to the database before the app goes into the background, where
+     * the process can be killed at any time. Like SharedPreferences.apply(), this waits on the
+     * main thread for the write to finish; since all pending changes go out in a single
+     * transaction, the wait is short. It is bounded by FLUSH_TIMEOUT_MILLISECONDS all the same,
+     * after which the write carries on in the background.
+     */
+    @MainThread
+    @OnLifecycleEvent(Lifecycle.Event.ON_STOP)
+    public void flushOnStop() {
+        try {
+            queryExecutor.submit(this::flush).get(FLUSH_TIMEOUT_MILLISECONDS,
+                    TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Unable to write game state: " + e.getCause());
+        } catch (TimeoutException e) {
+            Log.w(TAG, "Game state still being written after " + FLUSH_TIMEOUT_MILLISECONDS +
+                    "ms, not waiting for it");
+        }
+    }
+
+    @Nullable
+    private Integer get(@NonNull String key) {
+        if (!values.containsKey(key)) {
+            values.put(key, gameStateDao.get(key));
+        }
+        return values.get(key);
+    }
+
+    private void set(@NonNull String key, int value) {
+        values.put(key, value);
+        dirtyKeys.add(key);
+        if (GAS_LEVEL.equals(key)) {
+            gasTankLevel.postValue(value);
+        }
+        if (!flushScheduled) {
+            flushScheduled = true;
+            queryExecutor.schedule(this::scheduledFlush, FLUSH_DELAY_MILLISECONDS,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Nothing waits on the future of a scheduled flush, so its failures are logged here rather
+     * than swallowed by the executor. The changes stay dirty and go out with the next flush.
+     */
+    private void scheduledFlush() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Unable to write game state", e);
+        }
+    }
+
+    private void flush() {
+        flushScheduled = false;
+        if (dirtyKeys.isEmpty()) {
+            return;
+        }
+        db.runInTransaction(() -> {
+            for (String key : dirtyKeys) {
+                gameStateDao.put(key, values.get(key));
+            }
+        });
+        dirtyKeys.clear();
     }
 }
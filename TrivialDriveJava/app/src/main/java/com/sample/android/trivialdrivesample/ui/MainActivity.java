@@ -43,6 +43,8 @@ import com.sample.android.trivialdrivesample.R;
 import com.sample.android.trivialdrivesample.TrivialDriveApplication;
 import com.sample.android.trivialdrivesample.databinding.ActivityMainBinding;
 
+import java.util.List;
+
 /*
  * MainActivity here exists as a container for the fragments that display the various bits of UI,
  * as well as the CoordinatorLayout/SnackBar implementation.
@@ -76,9 +78,9 @@ public class MainActivity extends AppCompatActivity {
                         trivialDriveRepository);
         mainActivityViewModel = new ViewModelProvider(this, mainActivityViewModelFactory)
                 .get(MainActivityViewModel.class);
-        mainActivityViewModel.getMessages().observe(this, resId -> {
-            Snackbar snackbar = Snackbar.make(activityMainBinding.mainLayout, getString(resId),
-                    Snackbar.LENGTH_SHORT);
+        mainActivityViewModel.getMessages().observe(this, messages -> {
+            Snackbar snackbar = Snackbar.make(activityMainBinding.mainLayout,
+                    summarizeMessages(messages), Snackbar.LENGTH_SHORT);
             snackbar.show();
         });
         // Allows billing to refresh purchases during onResume
@@ -94,6 +96,26 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Joins a burst of messages into the text of a single Snackbar, counting any repeats.
+     */
+    @NonNull
+    private String summarizeMessages(@NonNull List<MessageAggregator.Message> messages) {
+        StringBuilder summary = new StringBuilder();
+        for (MessageAggregator.Message message : messages) {
+            if (summary.length() > 0) {
+                summary.append(' ');
+            }
+            if (message.count > 1) {
+                summary.append(getString(R.string.message_repeated, getString(message.resId),
+                        message.count));
+            } else {
+                summary.append(getString(message.resId));
+            }
+        }
+        return summary.toString();
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         MenuInflater inflater = getMenuInflater();
@@ -39,7 +39,9 @@ import com.sample.android.trivialdrivesample.TrivialDriveRepository;
 import com.sample.android.trivialdrivesample.databinding.FragmentMakePurchaseBinding;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This Fragment is simply a wrapper for the inventory (i.e. items for sale). Here again there is
@@ -55,6 +57,8 @@ public class MakePurchaseFragment extends Fragment {
     private MakePurchaseViewModel makePurchaseViewModel;
     private FragmentMakePurchaseBinding binding;
     private final List<MakePurchaseAdapter.Item> inventoryList = new ArrayList<>();
+    // the title LiveData handed to data binding, built once per SKU
+    private final Map<String, LiveData<CharSequence>> skuTitleMap = new HashMap<>();
 
     /**
      * While this list is hard-coded here, it could just as easily come from a server, allowing
@@ -136,8 +140,7 @@ public class MakePurchaseFragment extends Fragment {
         if (null == skuTitle || null == isPurchased) {
             return;
         }
-        if ( isPurchased && ( sku.equals(TrivialDriveRepository.SKU_INFINITE_GAS_MONTHLY) ||
-                sku.equals(TrivialDriveRepository.SKU_INFINITE_GAS_YEARLY))) {
+        if ( isPurchased && makePurchaseViewModel.isSubscription(sku)) {
             // add URL to the Play store to allow user to unsubscribe if the user already has
             // purchased a subscription
             SpannableString titleSpannable = new SpannableString(skuTitle);
@@ -155,6 +158,15 @@ public class MakePurchaseFragment extends Fragment {
     }
 
     public LiveData<CharSequence> skuTitle(final @NonNull String sku) {
+        LiveData<CharSequence> skuTitle = skuTitleMap.get(sku);
+        if (null == skuTitle) {
+            skuTitle = combineSkuTitle(sku);
+            skuTitleMap.put(sku, skuTitle);
+        }
+        return skuTitle;
+    }
+
+    private LiveData<CharSequence> combineSkuTitle(final @NonNull String sku) {
         MakePurchaseViewModel.SkuDetails skuDetails = makePurchaseViewModel.getSkuDetails(sku);
         final LiveData<String> skuTitleLiveData = skuDetails.title;
         final LiveData<Boolean> isPurchasedLiveData = makePurchaseViewModel.isPurchased(sku);
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sample.android.trivialdrivesample.ui;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.StringRes;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.Observer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the messages sent to the UI over a short window and delivers them as a single summary,
+ * so that a burst of messages, such as one per SKU in a multi-line purchase, shows up as one
+ * Snackbar instead of replacing each other. Repeats of the same message within a window are
+ * counted rather than repeated.
+ * <p>
+ * The window starts with the first message of a burst, so a message is never held back for more
+ * than the window no matter how many follow it. The summary is delivered through a
+ * SingleMediatorLiveEvent, so it is only shown once. If a summary hasn't been observed yet when
+ * the next one is delivered, for instance while the activity is stopped, the next one is merged
+ * into it, so no message is lost.
+ */
+public class MessageAggregator {
+    private static final long DEFAULT_WINDOW_MILLISECONDS = 300L;
+
+    /**
+     * A message in a summary, along with the number of times it was sent during the window.
+     */
+    public static final class Message {
+        @StringRes
+        public final int resId;
+        public final int count;
+
+        Message(@StringRes int resId, int count) {
+            this.resId = resId;
+            this.count = count;
+        }
+    }
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final long windowMilliseconds;
+    // the number of times each message was sent in the current window, in the order first sent;
+    // only touched on the main thread
+    private final Map<Integer, Integer> pendingMessages = new LinkedHashMap<>();
+    // the counts behind the last summary, kept until an observer has seen it; only touched on
+    // the main thread
+    private final Map<Integer, Integer> unobservedMessages = new LinkedHashMap<>();
+    private final SingleMediatorLiveEvent<List<Message>> summaries = new SummaryEvent();
+    private final Runnable deliverRunnable = this::deliver;
+
+    public MessageAggregator() {
+        this(DEFAULT_WINDOW_MILLISECONDS);
+    }
+
+    /**
+     * @param windowMilliseconds how long messages are collected before they are delivered
+     */
+    public MessageAggregator(long windowMilliseconds) {
+        this.windowMilliseconds = windowMilliseconds;
+    }
+
+    /**
+     * Sends a message from any thread.
+     *
+     * @param resId the string resource of the message
+     */
+    @AnyThread
+    public void post(@StringRes int resId) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            add(resId);
+        } else {
+            mainHandler.post(() -> add(resId));
+        }
+    }
+
+    /**
+     * Sends a message from the main thread.
+     *
+     * @param resId the string resource of the message
+     */
+    @MainThread
+    public void add(@StringRes int resId) {
+        if (pendingMessages.isEmpty()) {
+            mainHandler.postDelayed(deliverRunnable, windowMilliseconds);
+        }
+        addCount(pendingMessages, resId, 1);
+    }
+
+    /**
+     * @return a LiveData of the summary of each burst of messages, in the order they were first
+     * sent.
+     */
+    @NonNull
+    public LiveData<List<Message>> getSummaries() {
+        return summaries;
+    }
+
+    @MainThread
+    private void deliver() {
+        if (pendingMessages.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<Integer, Integer> entry : pendingMessages.entrySet()) {
+            addCount(unobservedMessages, entry.getKey(), entry.getValue());
+        }
+        pendingMessages.clear();
+        List<Message> summary = new ArrayList<>(unobservedMessages.size());
+        for (Map.Entry<Integer, Integer> entry : unobservedMessages.entrySet()) {
+            summary.add(new Message(entry.getKey(), entry.getValue()));
+        }
+        summaries.setValue(Collections.unmodifiableList(summary));
+    }
+
+    private static void addCount(Map<Integer, Integer> counts, int resId, int count) {
+        Integer previousCount = counts.get(resId);
+        counts.put(resId, null == previousCount ? count : previousCount + count);
+    }
+
+    /**
+     * Forgets the counts behind a summary once its observer has been handed it.
+     */
+    private class SummaryEvent extends SingleMediatorLiveEvent<List<Message>> {
+        @MainThread
+        @Override
+        public void observe(@NonNull LifecycleOwner owner,
+                @NonNull Observer<? super List<Message>> observer) {
+            super.observe(owner, summary -> {
+                unobservedMessages.clear();
+                observer.onChanged(summary);
+            });
+        }
+    }
+}
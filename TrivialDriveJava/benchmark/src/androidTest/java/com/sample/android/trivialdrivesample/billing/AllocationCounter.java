@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sample.android.trivialdrivesample.billing;
+
+import android.os.Bundle;
+import android.os.Debug;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+/**
+ * Counts the allocations of a benchmarked operation, which the Jetpack Benchmark library doesn't
+ * report. Counting slows the operation down, so it runs as a separate pass after the timed loop.
+ * Allocation counting is process-wide, so work the operation posts to other threads is included.
+ */
+final class AllocationCounter {
+    private static final String TAG = "Benchmark";
+    private static final int ITERATIONS = 10;
+    // AndroidJUnitRunner's "in progress" status, which the Benchmark library reports through too
+    private static final int STATUS_IN_PROGRESS = 2;
+
+    private AllocationCounter() {
+    }
+
+    /**
+     * Runs the operation a fixed number of times and reports the average number of objects and
+     * bytes it allocates, both to logcat and to the instrumentation results.
+     */
+    @SuppressWarnings("deprecation")
+    static void report(String name, Runnable operation) {
+        // one untracked run, so lazy initialization isn't counted
+        operation.run();
+        Debug.resetAllCounts();
+        Debug.startAllocCounting();
+        try {
+            for (int i = 0; i < ITERATIONS; i++) {
+                operation.run();
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        long allocationCount = Debug.getGlobalAllocCount() / ITERATIONS;
+        long allocationBytes = Debug.getGlobalAllocSize() / ITERATIONS;
+        Log.i(TAG, name + " allocations/op: " + allocationCount + ", bytes/op: " +
+                allocationBytes);
+        Bundle status = new Bundle();
+        status.putLong(name + "_allocationCount", allocationCount);
+        status.putLong(name + "_allocationBytes", allocationBytes);
+        InstrumentationRegistry.getInstrumentation().sendStatus(STATUS_IN_PROGRESS, status);
+    }
+}
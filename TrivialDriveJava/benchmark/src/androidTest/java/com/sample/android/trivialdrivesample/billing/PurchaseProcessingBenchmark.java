@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sample.android.trivialdrivesample.billing;
+
+import android.app.Application;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.Purchase;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmarks the purchase-processing hot path, signature verification followed by
+ * processPurchaseList, for purchase lists of 1 to 10,000 signed, synthetic purchases. The
+ * BillingDataSource runs against a FakeBillingClient that owns the same purchases, and its
+ * journals and snapshot are kept in memory. Measuring only starts once the purchases found at
+ * startup have been processed, so nothing but the processing itself is measured. Each benchmark
+ * reports its allocations per operation after the timed loop.
+ */
+@RunWith(Parameterized.class)
+public class PurchaseProcessingBenchmark {
+    private static final String[] INAPP_SKUS = new String[]{"gas", "premium"};
+    private static final String[] SUBSCRIPTION_SKUS =
+            new String[]{"infinite_gas_monthly", "infinite_gas_yearly"};
+    private static final long SETUP_TIMEOUT_SECONDS = 60;
+
+    @Parameterized.Parameters(name = "purchases={0}")
+    public static Collection<Object[]> purchaseCounts() {
+        return Arrays.asList(new Object[][]{{1}, {10}, {100}, {1000}, {10000}});
+    }
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final int purchaseCount;
+    private final List<Purchase> purchases = new ArrayList<>();
+    private PublicKey publicKey;
+    private BillingDataSource billingDataSource;
+
+    public PurchaseProcessingBenchmark(int purchaseCount) {
+        this.purchaseCount = purchaseCount;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        KeyPair keyPair = keyPairGenerator.generateKeyPair();
+        publicKey = keyPair.getPublic();
+        FakeBillingClient fakeBillingClient = new FakeBillingClient(0, keyPair);
+        // acknowledged, non-consumable purchases, as seen on every refresh once they settle
+        int monthlyCount = (purchaseCount + 1) / 2;
+        purchases.addAll(fakeBillingClient.addPurchases(BillingClient.SkuType.SUBS,
+                SUBSCRIPTION_SKUS[0], monthlyCount, Purchase.PurchaseState.PURCHASED, true));
+        purchases.addAll(fakeBillingClient.addPurchases(BillingClient.SkuType.SUBS,
+                SUBSCRIPTION_SKUS[1], purchaseCount - monthlyCount,
+                Purchase.PurchaseState.PURCHASED, true));
+        Application application = InMemorySharedPreferences.wrap(
+                ApplicationProvider.getApplicationContext());
+        CountDownLatch startupProcessed = new CountDownLatch(1);
+        // the data source sets up its LiveData, which has to happen on the main thread
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            billingDataSource = new BillingDataSource(application, INAPP_SKUS,
+                    SUBSCRIPTION_SKUS, null, 20, fakeBillingClient.asFactory(), publicKey);
+            billingDataSource.isPurchased(SUBSCRIPTION_SKUS[0]).observeForever(purchased -> {
+                if (Boolean.TRUE.equals(purchased)) {
+                    startupProcessed.countDown();
+                }
+            });
+        });
+        assertTrue("Timed out waiting for the startup purchase refresh",
+                startupProcessed.await(SETUP_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void verifyAll() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            Security.verifyAll(publicKey, purchases);
+        }
+        AllocationCounter.report("verifyAll_purchases=" + purchaseCount,
+                () -> Security.verifyAll(publicKey, purchases));
+    }
+
+    @Test
+    public void processPurchaseList() {
+        List<String> skusToUpdate = Arrays.asList(SUBSCRIPTION_SKUS);
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            billingDataSource.processPurchaseListNow(purchases, skusToUpdate);
+        }
+        AllocationCounter.report("processPurchaseList_purchases=" + purchaseCount,
+                () -> billingDataSource.processPurchaseListNow(purchases, skusToUpdate));
+    }
+}
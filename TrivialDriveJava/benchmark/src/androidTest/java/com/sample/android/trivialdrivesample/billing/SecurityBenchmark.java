@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+import android.util.Base64;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.billingclient.api.Purchase;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares purchase signature verification as it used to be done, parsing the public key and
+ * looking up a Signature for every purchase, with the cached key and per-thread Signature used by
+ * Security today, for a single purchase and for a large purchase list.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SecurityBenchmark {
+    private static final int PURCHASE_LIST_SIZE = 64;
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private String encodedPublicKey;
+    private PublicKey publicKey;
+    private final List<Purchase> purchases = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        KeyPair keyPair = keyPairGenerator.generateKeyPair();
+        publicKey = keyPair.getPublic();
+        encodedPublicKey = Base64.encodeToString(publicKey.getEncoded(), Base64.DEFAULT);
+        Signature signer = Signature.getInstance("SHA1withRSA");
+        for (int i = 0; i < PURCHASE_LIST_SIZE; i++) {
+            String originalJson = new JSONObject()
+                    .put("orderId", "GPA.0000-0000-0000-" + i)
+                    .put("productId", "premium")
+                    .put("purchaseTime", 1600000000000L + i)
+                    .put("purchaseState", 0)
+                    .put("purchaseToken", "token" + i)
+                    .put("acknowledged", true)
+                    .toString();
+            signer.initSign(keyPair.getPrivate());
+            signer.update(originalJson.getBytes());
+            String signature = Base64.encodeToString(signer.sign(), Base64.DEFAULT);
+            purchases.add(new Purchase(originalJson, signature));
+        }
+    }
+
+    @Test
+    public void verifyPurchase_uncached() throws Exception {
+        Purchase purchase = purchases.get(0);
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            assertTrue(verifyUncached(purchase));
+        }
+    }
+
+    @Test
+    public void verifyPurchase_cached() {
+        Purchase purchase = purchases.get(0);
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            assertTrue(Security.verifyPurchase(publicKey, purchase.getOriginalJson(),
+                    purchase.getSignature()));
+        }
+    }
+
+    @Test
+    public void verifyPurchaseList_uncached() throws Exception {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (Purchase purchase : purchases) {
+                assertTrue(verifyUncached(purchase));
+            }
+        }
+    }
+
+    @Test
+    public void verifyPurchaseList_verifyAll() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (boolean valid : Security.verifyAll(publicKey, purchases)) {
+                assertTrue(valid);
+            }
+        }
+    }
+
+    /**
+     * The verification path before the key and Signature were cached.
+     */
+    private boolean verifyUncached(Purchase purchase) throws Exception {
+        PublicKey key = KeyFactory.getInstance("RSA").generatePublic(
+                new X509EncodedKeySpec(Base64.decode(encodedPublicKey, Base64.DEFAULT)));
+        Signature signatureAlgorithm = Signature.getInstance("SHA1withRSA");
+        signatureAlgorithm.initVerify(key);
+        signatureAlgorithm.update(purchase.getOriginalJson().getBytes());
+        return signatureAlgorithm.verify(Base64.decode(purchase.getSignature(), Base64.DEFAULT));
+    }
+}
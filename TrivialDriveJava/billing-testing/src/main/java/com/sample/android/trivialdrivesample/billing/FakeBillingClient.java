@@ -0,0 +1,439 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sample.android.trivialdrivesample.billing;
+
+import android.app.Activity;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Base64;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.AcknowledgePurchaseParams;
+import com.android.billingclient.api.AcknowledgePurchaseResponseListener;
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClientStateListener;
+import com.android.billingclient.api.BillingFlowParams;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.ConsumeParams;
+import com.android.billingclient.api.ConsumeResponseListener;
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.PurchasesResponseListener;
+import com.android.billingclient.api.PurchasesUpdatedListener;
+import com.android.billingclient.api.SkuDetails;
+import com.android.billingclient.api.SkuDetailsParams;
+import com.android.billingclient.api.SkuDetailsResponseListener;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A deterministic, in-process BillingClientAdapter for tests and benchmarks. It keeps a catalog of
+ * SkuDetails and the purchases owned by the user, and answers every call on the main looper after a
+ * simulated latency. Latency is drawn from a configurable distribution and a seeded Random, and
+ * calls can be made to fail with any response code, so a run can be replayed exactly.
+ * <p>
+ * Purchases are signed with the given key pair; pass its public key to the BillingDataSource so
+ * that it accepts them.
+ */
+class FakeBillingClient implements BillingClientAdapter {
+    /**
+     * The calls that can be delayed, failed and counted.
+     */
+    enum Call {
+        START_CONNECTION,
+        QUERY_SKU_DETAILS,
+        QUERY_PURCHASES,
+        CONSUME,
+        ACKNOWLEDGE,
+        LAUNCH_BILLING_FLOW,
+    }
+
+    /**
+     * How long a call takes to answer.
+     */
+    interface LatencyDistribution {
+        long nextLatencyMillis(@NonNull Random random);
+    }
+
+    static LatencyDistribution fixedLatency(long millis) {
+        return random -> millis;
+    }
+
+    static LatencyDistribution uniformLatency(long minMillis, long maxMillis) {
+        return random -> minMillis + (long) (random.nextDouble() * (maxMillis - minMillis + 1));
+    }
+
+    static LatencyDistribution exponentialLatency(long meanMillis) {
+        return random -> (long) (-meanMillis * Math.log(1.0 - random.nextDouble()));
+    }
+
+    /**
+     * Makes a call fail, either for a number of calls or with some probability.
+     */
+    private static class Failure {
+        final int responseCode;
+        final double rate;
+        int remaining;
+
+        Failure(int responseCode, double rate, int remaining) {
+            this.responseCode = responseCode;
+            this.rate = rate;
+            this.remaining = remaining;
+        }
+    }
+
+    private static final String PACKAGE_NAME = "com.sample.android.trivialdrivesample";
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Random random;
+    private final KeyPair keyPair;
+    private final Map<Call, LatencyDistribution> latencies = new EnumMap<>(Call.class);
+    private final Map<Call, Failure> failures = new EnumMap<>(Call.class);
+    private final Map<Call, Integer> callCounts = new EnumMap<>(Call.class);
+    private final Map<String, SkuDetails> skuDetailsMap = new HashMap<>();
+    // owned purchases keyed by SKU type, then by purchase token
+    private final Map<String, Map<String, Purchase>> ownedPurchases = new HashMap<>();
+    private PurchasesUpdatedListener purchasesUpdatedListener;
+    private BillingClientStateListener stateListener;
+    private boolean connected = false;
+    private int purchaseCount = 0;
+    private int disconnectedCallCount = 0;
+
+    /**
+     * @param seed    seed for the latency and failure decisions
+     * @param keyPair key pair used to sign the purchases
+     */
+    FakeBillingClient(long seed, @NonNull KeyPair keyPair) {
+        this.random = new Random(seed);
+        this.keyPair = keyPair;
+        ownedPurchases.put(BillingClient.SkuType.INAPP, new LinkedHashMap<>());
+        ownedPurchases.put(BillingClient.SkuType.SUBS, new LinkedHashMap<>());
+    }
+
+    /**
+     * @return a factory that hands this client to the BillingDataSource
+     */
+    @NonNull
+    BillingClientAdapter.Factory asFactory() {
+        return (context, listener) -> {
+            synchronized (FakeBillingClient.this) {
+                purchasesUpdatedListener = listener;
+            }
+            return FakeBillingClient.this;
+        };
+    }
+
+    synchronized void setLatency(@NonNull Call call, @NonNull LatencyDistribution latency) {
+        latencies.put(call, latency);
+    }
+
+    /**
+     * Fails the next calls with the given response code.
+     *
+     * @param times the number of calls to fail
+     */
+    synchronized void failNext(@NonNull Call call, int responseCode, int times) {
+        failures.put(call, new Failure(responseCode, 1.0, times));
+    }
+
+    /**
+     * Fails calls at random with the given response code, until cleared.
+     *
+     * @param rate the probability that a call fails, from 0 to 1
+     */
+    synchronized void setFailureRate(@NonNull Call call, int responseCode, double rate) {
+        failures.put(call, new Failure(responseCode, rate, Integer.MAX_VALUE));
+    }
+
+    synchronized void clearFailures(@NonNull Call call) {
+        failures.remove(call);
+    }
+
+    synchronized int getCallCount(@NonNull Call call) {
+        Integer count = callCounts.get(call);
+        return null == count ? 0 : count;
+    }
+
+    /**
+     * @return the number of calls, other than startConnection, made while disconnected
+     */
+    synchronized int getDisconnectedCallCount() {
+        return disconnectedCallCount;
+    }
+
+    @NonNull
+    synchronized List<Purchase> getOwnedPurchases(@NonNull String skuType) {
+        return new ArrayList<>(ownedPurchases.get(skuType).values());
+    }
+
+    /**
+     * Adds SKUs to the catalog.
+     */
+    synchronized void addSkuDetails(@NonNull String skuType, @NonNull String... skus)
+            throws JSONException {
+        for (String sku : skus) {
+            skuDetailsMap.put(sku, new SkuDetails(new JSONObject()
+                    .put("productId", sku)
+                    .put("type", skuType)
+                    .put("price", "$0.99")
+                    .put("price_amount_micros", 990000L)
+                    .put("price_currency_code", "USD")
+                    .put("title", sku + " (Trivial Drive)")
+                    .put("description", "Synthetic " + sku)
+                    .toString()));
+        }
+    }
+
+    /**
+     * Gives the user signed, synthetic purchases of a SKU.
+     *
+     * @param count         the number of purchases to add
+     * @param purchaseState a Purchase.PurchaseState
+     * @param acknowledged  whether the purchases have already been acknowledged
+     * @return the new purchases
+     */
+    @NonNull
+    synchronized List<Purchase> addPurchases(@NonNull String skuType, @NonNull String sku,
+            int count, int purchaseState, boolean acknowledged) {
+        List<Purchase> purchases = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int serial = purchaseCount++;
+            Purchase purchase = createPurchase(sku, "GPA.0000-0000-0000-" + serial,
+                    "token-" + serial, 1600000000000L + serial, purchaseState, acknowledged);
+            ownedPurchases.get(skuType).put(purchase.getPurchaseToken(), purchase);
+            purchases.add(purchase);
+        }
+        return purchases;
+    }
+
+    /**
+     * Delivers purchases to the PurchasesUpdatedListener, as Google Play does when a billing flow
+     * completes or a purchase is made outside of the app.
+     */
+    void sendPurchasesUpdated(@NonNull List<Purchase> purchases) {
+        PurchasesUpdatedListener listener;
+        long latency;
+        synchronized (this) {
+            listener = purchasesUpdatedListener;
+            latency = nextLatency(Call.LAUNCH_BILLING_FLOW);
+        }
+        BillingResult ok = result(BillingClient.BillingResponseCode.OK);
+        handler.postDelayed(() -> listener.onPurchasesUpdated(ok, purchases), latency);
+    }
+
+    /**
+     * Drops the connection to the simulated billing service.
+     */
+    void disconnect() {
+        BillingClientStateListener listener;
+        synchronized (this) {
+            connected = false;
+            listener = stateListener;
+        }
+        if (null != listener) {
+            handler.post(listener::onBillingServiceDisconnected);
+        }
+    }
+
+    @Override
+    public void startConnection(@NonNull BillingClientStateListener listener) {
+        final BillingResult billingResult;
+        final long latency;
+        synchronized (this) {
+            stateListener = listener;
+            billingResult = result(nextResponseCode(Call.START_CONNECTION));
+            latency = nextLatency(Call.START_CONNECTION);
+        }
+        handler.postDelayed(() -> {
+            synchronized (FakeBillingClient.this) {
+                connected = billingResult.getResponseCode()
+                        == BillingClient.BillingResponseCode.OK;
+            }
+            listener.onBillingSetupFinished(billingResult);
+        }, latency);
+    }
+
+    @Override
+    public void querySkuDetailsAsync(@NonNull SkuDetailsParams params,
+            @NonNull SkuDetailsResponseListener listener) {
+        final BillingResult billingResult;
+        final List<SkuDetails> skuDetailsList = new ArrayList<>();
+        final long latency;
+        synchronized (this) {
+            billingResult = result(nextResponseCode(Call.QUERY_SKU_DETAILS));
+            latency = nextLatency(Call.QUERY_SKU_DETAILS);
+            if (billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK) {
+                for (String sku : params.getSkusList()) {
+                    SkuDetails skuDetails = skuDetailsMap.get(sku);
+                    if (null != skuDetails && skuDetails.getType().equals(params.getSkuType())) {
+                        skuDetailsList.add(skuDetails);
+                    }
+                }
+            }
+        }
+        handler.postDelayed(() -> listener.onSkuDetailsResponse(billingResult, skuDetailsList),
+                latency);
+    }
+
+    @Override
+    public void queryPurchasesAsync(@NonNull String skuType,
+            @NonNull PurchasesResponseListener listener) {
+        final BillingResult billingResult;
+        final List<Purchase> purchases;
+        final long latency;
+        synchronized (this) {
+            billingResult = result(nextResponseCode(Call.QUERY_PURCHASES));
+            latency = nextLatency(Call.QUERY_PURCHASES);
+            purchases = billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK
+                    ? new ArrayList<>(ownedPurchases.get(skuType).values())
+                    : Collections.emptyList();
+        }
+        handler.postDelayed(() -> listener.onQueryPurchasesResponse(billingResult, purchases),
+                latency);
+    }
+
+    @Override
+    public void consumeAsync(@NonNull ConsumeParams params,
+            @NonNull ConsumeResponseListener listener) {
+        final String purchaseToken = params.getPurchaseToken();
+        final BillingResult billingResult;
+        final long latency;
+        synchronized (this) {
+            int responseCode = nextResponseCode(Call.CONSUME);
+            latency = nextLatency(Call.CONSUME);
+            if (responseCode == BillingClient.BillingResponseCode.OK) {
+                Purchase purchase = null;
+                for (Map<String, Purchase> purchases : ownedPurchases.values()) {
+                    Purchase removed = purchases.remove(purchaseToken);
+                    if (null != removed) {
+                        purchase = removed;
+                    }
+                }
+                if (null == purchase) {
+                    responseCode = BillingClient.BillingResponseCode.ITEM_NOT_OWNED;
+                }
+            }
+            billingResult = result(responseCode);
+        }
+        handler.postDelayed(() -> listener.onConsumeResponse(billingResult, purchaseToken),
+                latency);
+    }
+
+    @Override
+    public void acknowledgePurchase(@NonNull AcknowledgePurchaseParams params,
+            @NonNull AcknowledgePurchaseResponseListener listener) {
+        final String purchaseToken = params.getPurchaseToken();
+        final BillingResult billingResult;
+        final long latency;
+        synchronized (this) {
+            int responseCode = nextResponseCode(Call.ACKNOWLEDGE);
+            latency = nextLatency(Call.ACKNOWLEDGE);
+            if (responseCode == BillingClient.BillingResponseCode.OK) {
+                responseCode = BillingClient.BillingResponseCode.ITEM_NOT_OWNED;
+                for (Map<String, Purchase> purchases : ownedPurchases.values()) {
+                    Purchase purchase = purchases.get(purchaseToken);
+                    if (null != purchase) {
+                        purchases.put(purchaseToken, createPurchase(purchase.getSkus().get(0),
+                                purchase.getOrderId(), purchaseToken, purchase.getPurchaseTime(),
+                                purchase.getPurchaseState(), true));
+                        responseCode = BillingClient.BillingResponseCode.OK;
+                    }
+                }
+            }
+            billingResult = result(responseCode);
+        }
+        handler.postDelayed(() -> listener.onAcknowledgePurchaseResponse(billingResult),
+                latency);
+    }
+
+    /**
+     * Only reports whether the flow could be launched; use sendPurchasesUpdated to complete it.
+     */
+    @NonNull
+    @Override
+    public synchronized BillingResult launchBillingFlow(@NonNull Activity activity,
+            @NonNull BillingFlowParams params) {
+        return result(nextResponseCode(Call.LAUNCH_BILLING_FLOW));
+    }
+
+    private int nextResponseCode(@NonNull Call call) {
+        Integer count = callCounts.get(call);
+        callCounts.put(call, null == count ? 1 : count + 1);
+        if (call != Call.START_CONNECTION && !connected) {
+            disconnectedCallCount++;
+            return BillingClient.BillingResponseCode.SERVICE_DISCONNECTED;
+        }
+        Failure failure = failures.get(call);
+        if (null != failure && failure.remaining > 0
+                && (failure.rate >= 1.0 || random.nextDouble() < failure.rate)) {
+            failure.remaining--;
+            return failure.responseCode;
+        }
+        return BillingClient.BillingResponseCode.OK;
+    }
+
+    private long nextLatency(@NonNull Call call) {
+        LatencyDistribution latency = latencies.get(call);
+        return null == latency ? 0 : Math.max(0, latency.nextLatencyMillis(random));
+    }
+
+    @NonNull
+    private static BillingResult result(int responseCode) {
+        return BillingResult.newBuilder()
+                .setResponseCode(responseCode)
+                .setDebugMessage("FakeBillingClient")
+                .build();
+    }
+
+    @NonNull
+    private Purchase createPurchase(@NonNull String sku, @NonNull String orderId,
+            @NonNull String purchaseToken, long purchaseTime, int purchaseState,
+            boolean acknowledged) {
+        try {
+            String originalJson = new JSONObject()
+                    .put("orderId", orderId)
+                    .put("packageName", PACKAGE_NAME)
+                    .put("productId", sku)
+                    .put("purchaseTime", purchaseTime)
+                    // Play reports pending purchases as 4 and completed purchases as 0
+                    .put("purchaseState",
+                            purchaseState == Purchase.PurchaseState.PENDING ? 4 : 0)
+                    .put("purchaseToken", purchaseToken)
+                    .put("acknowledged", acknowledged)
+                    .toString();
+            Signature signer = Signature.getInstance("SHA1withRSA");
+            signer.initSign(keyPair.getPrivate());
+            signer.update(originalJson.getBytes());
+            return new Purchase(originalJson,
+                    Base64.encodeToString(signer.sign(), Base64.NO_WRAP));
+        } catch (JSONException | GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+import android.os.Handler;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.AcknowledgePurchaseParams;
+import com.android.billingclient.api.Purchase;
+
+/**
+ * Acknowledges non-consumable purchases. If a purchase isn't acknowledged within 3 days of being
+ * made, Google Play refunds and revokes it, so the queue never gives up on a purchase that can
+ * still be acknowledged: acknowledgements that fail with a transient response code are retried
+ * for as long as it takes, and every outstanding purchase stays journaled until it is
+ * acknowledged.
+ * <p>
+ * The depth of the queue, along with the purchase time of the oldest outstanding purchase, can be
+ * observed to catch a backlog well before the acknowledgement window closes.
+ */
+class AcknowledgementQueue extends PurchaseRetryQueue {
+    private static final String TAG = "TrivialDrive:" + AcknowledgementQueue.class.getSimpleName();
+    private static final long RETRY_TIMER_MAX_TIME_MILLISECONDS = 1000L * 60L * 15L; // 15 mins
+
+    private final BillingClientAdapter billingClient;
+
+    /**
+     * @param billingClient billing client used to acknowledge purchases
+     * @param journal       journal that holds the outstanding purchases
+     * @param handler       handler used to schedule retries
+     * @param listener      receives the purchases that have been acknowledged
+     */
+    AcknowledgementQueue(@NonNull BillingClientAdapter billingClient,
+            @NonNull PurchaseJournal journal, @NonNull Handler handler,
+            @NonNull Listener listener) {
+        super(TAG, "acknowledgement", journal, handler, listener, UNLIMITED_CONCURRENCY,
+                UNLIMITED_ATTEMPTS, RETRY_TIMER_MAX_TIME_MILLISECONDS);
+        this.billingClient = billingClient;
+    }
+
+    @Override
+    void dispatch(@NonNull Purchase purchase, @NonNull ResponseListener listener) {
+        billingClient.acknowledgePurchase(AcknowledgePurchaseParams.newBuilder()
+                .setPurchaseToken(purchase.getPurchaseToken())
+                .build(), listener::onResponse);
+    }
+}
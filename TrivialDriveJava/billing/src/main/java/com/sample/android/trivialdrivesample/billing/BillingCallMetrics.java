@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.BillingClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms for the calls the BillingDataSource makes to Google Play, kept separately for
+ * each call and response code. An asynchronous call is timed from the moment it is made until its
+ * listener is called, which is the latency the app actually sees.
+ * <p>
+ * Each histogram has a fixed set of power-of-two buckets: bucket 0 counts calls that took less
+ * than a millisecond, and bucket i counts calls that took between 2^(i-1) and 2^i milliseconds.
+ * The last bucket counts everything slower than that. Recording a latency is a handful of atomic
+ * increments, with no locking and no allocation, so it is cheap enough to leave on in production.
+ */
+public final class BillingCallMetrics {
+    /**
+     * The BillingClient calls that are timed.
+     */
+    public enum Call {
+        START_CONNECTION,
+        QUERY_SKU_DETAILS,
+        QUERY_PURCHASES,
+        CONSUME,
+        ACKNOWLEDGE_PURCHASE,
+        LAUNCH_BILLING_FLOW
+    }
+
+    /**
+     * The number of buckets in each histogram. The slowest bounded bucket ends at 2^16 ms, a
+     * little over a minute.
+     */
+    public static final int BUCKET_COUNT = 18;
+    private static final int MIN_RESPONSE_CODE = BillingClient.BillingResponseCode.SERVICE_TIMEOUT;
+    private static final int MAX_RESPONSE_CODE = BillingClient.BillingResponseCode.ITEM_NOT_OWNED;
+    // response codes the library doesn't define yet all share the last slot
+    private static final int RESPONSE_CODE_SLOTS = MAX_RESPONSE_CODE - MIN_RESPONSE_CODE + 2;
+    private static final int OTHER_RESPONSE_CODE_SLOT = RESPONSE_CODE_SLOTS - 1;
+    private static final int HISTOGRAMS = Call.values().length * RESPONSE_CODE_SLOTS;
+
+    // bucket counts of every histogram, laid out one histogram after the other
+    private final AtomicLongArray buckets = new AtomicLongArray(HISTOGRAMS * BUCKET_COUNT);
+    private final AtomicLongArray totalMicroseconds = new AtomicLongArray(HISTOGRAMS);
+    private final AtomicLongArray maxMicroseconds = new AtomicLongArray(HISTOGRAMS);
+
+    BillingCallMetrics() {
+    }
+
+    /**
+     * Records the latency of a call.
+     *
+     * @param call         the call that completed
+     * @param responseCode the response code the call completed with
+     * @param elapsedNanos how long the call took
+     */
+    void record(@NonNull Call call, int responseCode, long elapsedNanos) {
+        int histogram = histogramIndex(call, responseCodeSlot(responseCode));
+        long microseconds = Math.max(0, elapsedNanos / 1000L);
+        buckets.incrementAndGet(histogram * BUCKET_COUNT + bucketIndex(microseconds / 1000L));
+        totalMicroseconds.addAndGet(histogram, microseconds);
+        long max;
+        do {
+            max = maxMicroseconds.get(histogram);
+        } while (microseconds > max && !maxMicroseconds.compareAndSet(histogram, max,
+                microseconds));
+    }
+
+    /**
+     * @param call         the call to get the latencies of
+     * @param responseCode the response code to get the latencies of
+     * @return a snapshot of the latencies of the calls that completed with the response code
+     */
+    @NonNull
+    public Histogram getHistogram(@NonNull Call call, int responseCode) {
+        Histogram snapshot = new Histogram(call, responseCode);
+        snapshot.add(this, histogramIndex(call, responseCodeSlot(responseCode)));
+        return snapshot;
+    }
+
+    /**
+     * @param call the call to get the latencies of
+     * @return a snapshot of the latencies of the call, whatever response code it completed with
+     */
+    @NonNull
+    public Histogram getHistogram(@NonNull Call call) {
+        Histogram snapshot = new Histogram(call, null);
+        for (int slot = 0; slot < RESPONSE_CODE_SLOTS; slot++) {
+            snapshot.add(this, histogramIndex(call, slot));
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return a snapshot of every histogram that has recorded at least one call, ordered by call
+     * and then by response code. Response codes the library doesn't define are merged into a
+     * single histogram with a null response code.
+     */
+    @NonNull
+    public List<Histogram> getHistograms() {
+        List<Histogram> histograms = new ArrayList<>();
+        for (Call call : Call.values()) {
+            for (int slot = 0; slot < RESPONSE_CODE_SLOTS; slot++) {
+                Histogram snapshot = new Histogram(call,
+                        slot == OTHER_RESPONSE_CODE_SLOT ? null : slot + MIN_RESPONSE_CODE);
+                snapshot.add(this, histogramIndex(call, slot));
+                if (snapshot.getCount() > 0) {
+                    histograms.add(snapshot);
+                }
+            }
+        }
+        return histograms;
+    }
+
+    /**
+     * Clears every histogram, such as after they have been reported. Calls that complete while
+     * the histograms are being cleared may be partly lost.
+     */
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        for (int i = 0; i < HISTOGRAMS; i++) {
+            totalMicroseconds.set(i, 0);
+            maxMicroseconds.set(i, 0);
+        }
+    }
+
+    /**
+     * @param bucket index of the bucket
+     * @return the exclusive upper bound of the bucket in milliseconds, or Long.MAX_VALUE for the
+     * last bucket
+     */
+    public static long getBucketUpperBoundMillis(int bucket) {
+        return bucket >= BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    private static int bucketIndex(long milliseconds) {
+        // 0 ms goes in bucket 0, and [2^(i-1), 2^i) ms goes in bucket i
+        return Math.min(64 - Long.numberOfLeadingZeros(milliseconds), BUCKET_COUNT - 1);
+    }
+
+    private static int responseCodeSlot(int responseCode) {
+        if (responseCode < MIN_RESPONSE_CODE || responseCode > MAX_RESPONSE_CODE) {
+            return OTHER_RESPONSE_CODE_SLOT;
+        }
+        return responseCode - MIN_RESPONSE_CODE;
+    }
+
+    private static int histogramIndex(@NonNull Call call, int responseCodeSlot) {
+        return call.ordinal() * RESPONSE_CODE_SLOTS + responseCodeSlot;
+    }
+
+    /**
+     * A snapshot of the latencies of a call. Histograms are copied out of the live metrics, so a
+     * snapshot never changes once it has been taken.
+     */
+    public static final class Histogram {
+        private final Call call;
+        private final Integer responseCode;
+        private final long[] bucketCounts = new long[BUCKET_COUNT];
+        private long count;
+        private long totalMicroseconds;
+        private long maxMicroseconds;
+
+        private Histogram(@NonNull Call call, Integer responseCode) {
+            this.call = call;
+            this.responseCode = responseCode;
+        }
+
+        private void add(@NonNull BillingCallMetrics metrics, int histogram) {
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                long bucketCount = metrics.buckets.get(histogram * BUCKET_COUNT + bucket);
+                bucketCounts[bucket] += bucketCount;
+                count += bucketCount;
+            }
+            totalMicroseconds += metrics.totalMicroseconds.get(histogram);
+            maxMicroseconds = Math.max(maxMicroseconds, metrics.maxMicroseconds.get(histogram));
+        }
+
+        @NonNull
+        public Call getCall() {
+            return call;
+        }
+
+        /**
+         * @return the response code of the calls, or null if the histogram covers several
+         * response codes
+         */
+        public Integer getResponseCode() {
+            return responseCode;
+        }
+
+        /**
+         * @return the number of calls recorded
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @param bucket index of the bucket, see {@link #getBucketUpperBoundMillis(int)}
+         * @return the number of calls that fell in the bucket
+         */
+        public long getBucketCount(int bucket) {
+            return bucketCounts[bucket];
+        }
+
+        /**
+         * @return the mean latency in milliseconds, or 0 if no calls were recorded
+         */
+        public double getMeanMillis() {
+            return 0 == count ? 0 : totalMicroseconds / 1000.0 / count;
+        }
+
+        /**
+         * @return the highest latency recorded, in milliseconds
+         */
+        public double getMaxMillis() {
+            return maxMicroseconds / 1000.0;
+        }
+
+        /**
+         * Estimates a percentile from the buckets. The estimate is the upper bound of the bucket
+         * the percentile falls in, so it is never lower than the real value and, past the first
+         * millisecond, never more than twice it. Percentiles in the last bucket are reported as
+         * the highest latency recorded.
+         *
+         * @param percentile the percentile to estimate, between 0 and 100
+         * @return the estimated latency in milliseconds, or 0 if no calls were recorded
+         */
+        public double getPercentileMillis(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be between 0 and 100");
+            }
+            if (0 == count) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKET_COUNT - 1; bucket++) {
+                seen += bucketCounts[bucket];
+                if (seen >= rank) {
+                    return Math.min(getBucketUpperBoundMillis(bucket), getMaxMillis());
+                }
+            }
+            return getMaxMillis();
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return call + "/" + (null == responseCode ? "*" : responseCode) + ": count=" + count
+                    + " mean=" + getMeanMillis() + "ms p50=" + getPercentileMillis(50)
+                    + "ms p90=" + getPercentileMillis(90) + "ms p99=" + getPercentileMillis(99)
+                    + "ms max=" + getMaxMillis() + "ms";
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sample.android.trivialdrivesample.billing;
+
+import android.app.Activity;
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.AcknowledgePurchaseParams;
+import com.android.billingclient.api.AcknowledgePurchaseResponseListener;
+import com.android.billingclient.api.BillingClientStateListener;
+import com.android.billingclient.api.BillingFlowParams;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.ConsumeParams;
+import com.android.billingclient.api.ConsumeResponseListener;
+import com.android.billingclient.api.PurchasesResponseListener;
+import com.android.billingclient.api.PurchasesUpdatedListener;
+import com.android.billingclient.api.SkuDetailsParams;
+import com.android.billingclient.api.SkuDetailsResponseListener;
+
+/**
+ * The subset of the BillingClient that the BillingDataSource uses. The BillingDataSource only talks
+ * to Google Play through this interface, which allows it to run against an in-process fake, such as
+ * in unit and load tests, as well as against the real BillingClient.
+ */
+interface BillingClientAdapter {
+    /**
+     * Creates the billing client for a BillingDataSource.
+     */
+    interface Factory {
+        /**
+         * @param context  Android context used to bind the billing service
+         * @param listener receives the purchases updated by billing flows and by Google Play
+         * @return a billing client that isn't connected yet
+         */
+        @NonNull
+        BillingClientAdapter create(@NonNull Context context,
+                @NonNull PurchasesUpdatedListener listener);
+    }
+
+    void startConnection(@NonNull BillingClientStateListener listener);
+
+    void querySkuDetailsAsync(@NonNull SkuDetailsParams params,
+            @NonNull SkuDetailsResponseListener listener);
+
+    void queryPurchasesAsync(@NonNull String skuType, @NonNull PurchasesResponseListener listener);
+
+    void consumeAsync(@NonNull ConsumeParams params, @NonNull ConsumeResponseListener listener);
+
+    void acknowledgePurchase(@NonNull AcknowledgePurchaseParams params,
+            @NonNull AcknowledgePurchaseResponseListener listener);
+
+    @NonNull
+    BillingResult launchBillingFlow(@NonNull Activity activity, @NonNull BillingFlowParams params);
+}
@@ -0,0 +1,1693 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Base64;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleObserver;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MediatorLiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.OnLifecycleEvent;
+import androidx.lifecycle.Transformations;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClientStateListener;
+import com.android.billingclient.api.BillingFlowParams;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.ConsumeParams;
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.PurchasesUpdatedListener;
+import com.android.billingclient.api.SkuDetails;
+import com.android.billingclient.api.SkuDetailsParams;
+import com.android.billingclient.api.SkuDetailsResponseListener;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The BillingDataSource implements all billing functionality for our test application. Purchases
+ * can happen while in the app or at any time while out of the app, so the BillingDataSource has to
+ * account for that.
+ * <p>
+ * Since every SKU can have an individual state, all SKUs have an associated LiveData to allow their
+ * state to be observed.
+ * <p>
+ * This BillingDataSource knows nothing about the application; all necessary information is either
+ * passed into the constructor, exported as observable LiveData, or exported through callbacks. This
+ * code can be reused in a variety of apps.
+ * <p>
+ * That being said, if you're using Kotlin with coroutines, there's no reason to have LiveData at
+ * this layer. Same thing if you're using RxJava. This serves the need of decoupling the billing
+ * state machine from the logic of the game, which is mostly implemented in the repository.
+ * <p>
+ * Beginning a purchase flow involves passing an Activity into the Billing Library, but we merely
+ * pass it along to the API.
+ * <p>
+ * This data source has a few automatic features: 1) It checks for a valid signature on all
+ * purchases before attempting to acknowledge them. 2) It automatically acknowledges all known SKUs
+ * for non-consumables, and doesn't set the state to purchased until the acknowledgement is
+ * complete. 3) The data source will automatically consume skus that are set in
+ * knownAutoConsumeSKUs. As SKUs are consumed, a SingleLiveEvent will be triggered for a single
+ * observer. 4) If the BillingService is disconnected, it will attempt to reconnect with exponential
+ * fallback.
+ * <p>
+ * This data source attempts to keep billing library specific knowledge confined to this file; The
+ * only thing that clients of the BillingDataSource need to know are the SKUs used by their
+ * application.
+ * <p>
+ * The BillingClient needs access to the Application context in order to bind the remote billing
+ * service.
+ * <p>
+ * The BillingDataSource can also act as a LifecycleObserver for an Activity; this allows it to
+ * refresh purchases during onResume.
+ */
+public class BillingDataSource implements LifecycleObserver, PurchasesUpdatedListener,
+        BillingClientStateListener {
+    private static final String TAG = "TrivialDrive:" + BillingDataSource.class.getSimpleName();
+    private static final long RECONNECT_TIMER_START_MILLISECONDS = 1L * 1000L;
+    private static final long RECONNECT_TIMER_MAX_TIME_MILLISECONDS = 1000L * 60L * 15L; // 15 mins
+    private static final long SKU_DETAILS_REQUERY_TIME = 1000L * 60L * 60L * 4L; // 4 hours
+    // 1 min
+    private static final long DEFAULT_MIN_RESUME_REFRESH_INTERVAL_MILLISECONDS = 1000L * 60L;
+    private static final int DEFAULT_SKU_DETAILS_CHUNK_SIZE = 20;
+    private static final int SKU_DETAILS_MAX_ATTEMPTS = 4;
+    private static final long SKU_DETAILS_RETRY_TIMER_START_MILLISECONDS = 1000L;
+    private static final String CONSUMPTION_JOURNAL_NAME = "consumption_journal";
+    private static final String ACKNOWLEDGEMENT_JOURNAL_NAME = "acknowledgement_journal";
+    private static final int VERIFIED_PURCHASE_CACHE_SIZE = 256;
+    private static final int PURCHASE_EVENT_CAPACITY = 256;
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static volatile BillingDataSource sInstance;
+    // state of the connection to the billing service, and the billing operations that are waiting
+    // for it to be connected; both guarded by connectionLock
+    final private Object connectionLock = new Object();
+    private ConnectionState connectionState = ConnectionState.DISCONNECTED;
+    final private ArrayDeque<Runnable> pendingBillingOperations = new ArrayDeque<>();
+    // Billing client, connection, cached data
+    private final BillingClientAdapter billingClient;
+    // Every billing callback is delivered on this thread, which owns the state derived from them;
+    // only immutable snapshots are handed to the main thread, through LiveData.postValue. Retries
+    // and reconnects are scheduled here too.
+    final private HandlerThread billingThread;
+    final private Handler billingHandler;
+    final private BillingCallMetrics billingCallMetrics = new BillingCallMetrics();
+    // the key purchase signatures are verified against; null if no key is configured, in which
+    // case no purchase is trusted
+    @Nullable
+    final private PublicKey publicKey;
+    // known SKUs (used to query sku data and validate responses)
+    final private List<String> knownInappSKUs;
+    final private List<String> knownSubscriptionSKUs;
+    // SKUs to auto-consume
+    final private Set<String> knownAutoConsumeSKUs;
+    // how many SKUs are sent in each SkuDetails query
+    final private int skuDetailsChunkSize;
+    // SkuDetails from the last successful query, so they can be shown right away on a cold start
+    final private SkuDetailsCache skuDetailsCache;
+    // the last verified entitlements, so purchase state can be shown right away on a cold start
+    final private EntitlementSnapshot entitlementSnapshot;
+    // ordinals of the known SKUs; per-SKU data is kept in arrays indexed by ordinal
+    final private SkuTable skuTable;
+    // LiveData that is mostly maintained so it can be transformed into observables. Each one is
+    // created the first time it is asked for and weakly held, so it only exists while in use.
+    final private WeakSkuSlots<LiveData<SkuState>> skuStateLiveDataSlots;
+    final private WeakSkuSlots<LiveData<SkuDetails>> skuDetailsLiveDataSlots;
+    // The projections of the per-SKU LiveData handed out to other layers, memoized so that every
+    // caller asking for the same projection of the same SKU shares one LiveData.
+    final private WeakSkuSlots<LiveData<Boolean>> isPurchasedSlots;
+    final private WeakSkuSlots<LiveData<Boolean>> canPurchaseSlots;
+    final private WeakSkuSlots<LiveData<String>> skuTitleSlots;
+    final private WeakSkuSlots<LiveData<String>> skuPriceSlots;
+    final private WeakSkuSlots<LiveData<String>> skuDescriptionSlots;
+    // Purchases of auto-consumed SKUs waiting to be consumed, keyed by purchase token
+    final private ConsumptionQueue consumptionQueue;
+    // Purchases of non-consumable SKUs waiting to be acknowledged, keyed by purchase token
+    final private AcknowledgementQueue acknowledgementQueue;
+    // LRU set of purchases whose signatures have already been verified. Only accessed on the
+    // billing thread.
+    final private Map<String, Boolean> verifiedPurchaseCache =
+            new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > VERIFIED_PURCHASE_CACHE_SIZE;
+                }
+            };
+    // Observables that are used to communicate state.
+    final private EventStream<List<String>> newPurchase =
+            new EventStream<>(PURCHASE_EVENT_CAPACITY);
+    final private EventStream<List<String>> purchaseConsumed =
+            new EventStream<>(PURCHASE_EVENT_CAPACITY);
+    final private MutableLiveData<Boolean> billingFlowInProcess = new MutableLiveData<>();
+    // purchase queries that are currently outstanding, keyed by SKU type
+    final private Map<String, PurchasesQuery> purchasesQueriesInFlight = new HashMap<>();
+    // purchases from the last successful query, indexed by SKU and keyed by SKU type
+    final private Map<String, PurchaseIndex> purchaseIndexMap = new HashMap<>();
+    // when the last successful refresh of each SKU type was issued, keyed by SKU type; guarded by
+    // purchasesQueriesInFlight
+    final private Map<String, Long> purchasesRefreshTimes = new HashMap<>();
+    // when purchases were last changed by something other than a refresh
+    private volatile long purchasesInvalidatedTime = 0;
+    private volatile long minResumeRefreshIntervalMilliseconds =
+            DEFAULT_MIN_RESUME_REFRESH_INTERVAL_MILLISECONDS;
+    final private AtomicLong resumeRefreshCount = new AtomicLong();
+    final private AtomicLong skippedResumeRefreshCount = new AtomicLong();
+    // The state of every known SKU as an immutable snapshot indexed by SKU ordinal. Each update
+    // publishes a whole new snapshot in a single dispatch, and the per-SKU state LiveData are
+    // derived from it.
+    final private MutableLiveData<SkuState[]> skuStateSnapshotLiveData = new MutableLiveData<>();
+    final private Object skuStateLock = new Object();
+    private SkuState[] skuStateSnapshot;
+    // The SkuDetails of every known SKU, published the same way as the SKU state.
+    final private MutableLiveData<SkuDetails[]> skuDetailsSnapshotLiveData =
+            new MutableLiveData<>();
+    final private Object skuDetailsLock = new Object();
+    private SkuDetails[] skuDetailsSnapshot;
+    // how long before the data source tries to reconnect to Google play
+    private long reconnectMilliseconds = RECONNECT_TIMER_START_MILLISECONDS;
+    // Per-SKU SkuDetails bookkeeping, indexed by SKU ordinal and only accessed on the billing
+    // thread: when the SkuDetails of each SKU were last received, how many active LiveData observe
+    // them, and whether they are being queried.
+    final private long[] skuDetailsResponseTimes;
+    final private int[] skuDetailsObserverCounts;
+    final private boolean[] skuDetailsInFlight;
+    /**
+     * Our constructor.  Since we are a singleton, this is only used internally, and by tests that
+     * run the data source against a fake billing client.
+     *
+     * @param application           Android application class.
+     * @param knownInappSKUs        SKUs of in-app purchases the source should know about
+     * @param knownSubscriptionSKUs SKUs of subscriptions the source should know about
+     * @param skuDetailsChunkSize   maximum number of SKUs to send in a single SkuDetails query
+     * @param billingClientFactory  creates the client used to talk to Google Play
+     * @param publicKey             key that purchase signatures are verified against
+     */
+    @VisibleForTesting
+    BillingDataSource(@NonNull Application application, String[] knownInappSKUs,
+            String[] knownSubscriptionSKUs, String[] autoConsumeSKUs, int skuDetailsChunkSize,
+            @NonNull BillingClientAdapter.Factory billingClientFactory,
+            @Nullable PublicKey publicKey) {
+        if (skuDetailsChunkSize < 1) {
+            throw new IllegalArgumentException("skuDetailsChunkSize must be positive");
+        }
+        this.publicKey = publicKey;
+        this.skuDetailsChunkSize = skuDetailsChunkSize;
+        this.knownInappSKUs = knownInappSKUs == null ? new ArrayList<>() : Arrays.asList(
+                knownInappSKUs);
+        this.knownSubscriptionSKUs =
+                knownSubscriptionSKUs == null ? new ArrayList<>() : Arrays.asList(
+                        knownSubscriptionSKUs);
+        knownAutoConsumeSKUs = new HashSet<>();
+        if (autoConsumeSKUs != null) {
+            knownAutoConsumeSKUs.addAll(Arrays.asList(autoConsumeSKUs));
+        }
+        skuTable = new SkuTable(this.knownInappSKUs, this.knownSubscriptionSKUs);
+        skuStateSnapshot = new SkuState[skuTable.size()];
+        skuDetailsSnapshot = new SkuDetails[skuTable.size()];
+        skuDetailsResponseTimes = new long[skuTable.size()];
+        Arrays.fill(skuDetailsResponseTimes, -SKU_DETAILS_REQUERY_TIME);
+        skuDetailsObserverCounts = new int[skuTable.size()];
+        skuDetailsInFlight = new boolean[skuTable.size()];
+        skuStateLiveDataSlots = new WeakSkuSlots<>(skuTable.size(),
+                this::deriveSkuStateLiveData);
+        skuDetailsLiveDataSlots = new WeakSkuSlots<>(skuTable.size(),
+                this::deriveSkuDetailsLiveData);
+        isPurchasedSlots = new WeakSkuSlots<>(skuTable.size(), ordinal ->
+                Transformations.map(skuStateLiveDataSlots.get(ordinal), skuState ->
+                        skuState == SkuState.SKU_STATE_PURCHASED_AND_ACKNOWLEDGED));
+        canPurchaseSlots = new WeakSkuSlots<>(skuTable.size(), this::deriveCanPurchaseLiveData);
+        skuTitleSlots = new WeakSkuSlots<>(skuTable.size(), ordinal ->
+                Transformations.map(skuDetailsLiveDataSlots.get(ordinal), SkuDetails::getTitle));
+        skuPriceSlots = new WeakSkuSlots<>(skuTable.size(), ordinal ->
+                Transformations.map(skuDetailsLiveDataSlots.get(ordinal), SkuDetails::getPrice));
+        skuDescriptionSlots = new WeakSkuSlots<>(skuTable.size(), ordinal ->
+                Transformations.map(skuDetailsLiveDataSlots.get(ordinal),
+                        SkuDetails::getDescription));
+        skuDetailsCache = new SkuDetailsCache(application);
+        entitlementSnapshot = new EntitlementSnapshot(application);
+        billingThread = new HandlerThread("BillingDataSource");
+        billingThread.start();
+        billingHandler = new Handler(billingThread.getLooper());
+        // latencies are measured before the callbacks are handed to the billing thread
+        billingClient = new HandlerBillingClientAdapter(new InstrumentedBillingClientAdapter(
+                billingClientFactory.create(application, (billingResult, list) ->
+                        billingHandler.post(() -> onPurchasesUpdated(billingResult, list))),
+                billingCallMetrics), billingHandler);
+        consumptionQueue = new ConsumptionQueue(billingClient,
+                new PurchaseJournal(application, CONSUMPTION_JOURNAL_NAME), billingHandler,
+                this::onPurchaseConsumed);
+        acknowledgementQueue = new AcknowledgementQueue(billingClient,
+                new PurchaseJournal(application, ACKNOWLEDGEMENT_JOURNAL_NAME), billingHandler,
+                this::onPurchaseAcknowledged);
+        initializeLiveData();
+        loadCachedSkuDetails();
+        // reading and verifying the snapshot is too slow for the main thread; it is posted ahead
+        // of any billing callback, so the live purchase query still replaces it
+        billingHandler.post(this::loadEntitlementSnapshot);
+        connectionState = ConnectionState.CONNECTING;
+        billingClient.startConnection(this);
+    }
+
+    /*
+        Standard boilerplate double check locking pattern for thread-safe singletons.
+
+        base64EncodedPublicKey is the application's public key from the Google Play Console, which
+        purchase signatures are verified against. Purchases are never trusted without it.
+     */
+    public static BillingDataSource getInstance(
+            @NonNull Application application,
+            String[] knownInappSKUs,
+            String[] knownSubscriptionSKUs,
+            String[] autoConsumeSKUs,
+            @Nullable String base64EncodedPublicKey) {
+        return getInstance(application, knownInappSKUs, knownSubscriptionSKUs, autoConsumeSKUs,
+                base64EncodedPublicKey, DEFAULT_SKU_DETAILS_CHUNK_SIZE);
+    }
+
+    /**
+     * Like {@link #getInstance(Application, String[], String[], String[], String)}, for apps with
+     * large catalogs that want to control how the SkuDetails queries are split. Smaller chunks
+     * mean more queries in parallel, and a slow or failed query holds back fewer SKUs.
+     *
+     * @param skuDetailsChunkSize maximum number of SKUs to send in a single SkuDetails query
+     */
+    public static BillingDataSource getInstance(
+            @NonNull Application application,
+            String[] knownInappSKUs,
+            String[] knownSubscriptionSKUs,
+            String[] autoConsumeSKUs,
+            @Nullable String base64EncodedPublicKey,
+            int skuDetailsChunkSize) {
+        if (sInstance == null) {
+            synchronized (BillingDataSource.class) {
+                if (sInstance == null) {
+                    sInstance = new BillingDataSource(
+                            application,
+                            knownInappSKUs,
+                            knownSubscriptionSKUs,
+                            autoConsumeSKUs,
+                            skuDetailsChunkSize,
+                            PlayBillingClientAdapter::new,
+                            Security.parsePublicKey(base64EncodedPublicKey));
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    @Override
+    public void onBillingSetupFinished(BillingResult billingResult) {
+        int responseCode = billingResult.getResponseCode();
+        String debugMessage = billingResult.getDebugMessage();
+        Log.d(TAG, "onBillingSetupFinished: " + responseCode + " " + debugMessage);
+        switch (responseCode) {
+            case BillingClient.BillingResponseCode.OK:
+                // The billing client is ready. You can query purchases here.
+                // This doesn't mean that your app is set up correctly in the console -- it just
+                // means that you have a connection to the Billing service.
+                reconnectMilliseconds = RECONNECT_TIMER_START_MILLISECONDS;
+                synchronized (connectionLock) {
+                    connectionState = ConnectionState.DRAINING;
+                }
+                consumptionQueue.start();
+                acknowledgementQueue.start();
+                // operations issued while disconnected go out first, in the order they were issued
+                runPendingBillingOperations();
+                // cached SkuDetails are already being shown, so only the observed SKUs whose
+                // SkuDetails are stale are requeried.
+                querySkuDetailsAsync();
+                refreshPurchasesAsync();
+                break;
+            default:
+                synchronized (connectionLock) {
+                    connectionState = ConnectionState.DISCONNECTED;
+                }
+                retryBillingServiceConnectionWithExponentialBackoff();
+                break;
+        }
+    }
+
+    /**
+     * This is a pretty unusual occurrence. It happens primarily if the Google Play Store
+     * self-upgrades or is force closed.
+     */
+    @Override
+    public void onBillingServiceDisconnected() {
+        synchronized (connectionLock) {
+            connectionState = ConnectionState.DISCONNECTED;
+        }
+        consumptionQueue.pause();
+        acknowledgementQueue.pause();
+        retryBillingServiceConnectionWithExponentialBackoff();
+    }
+
+    /**
+     * Retries the billing service connection with exponential backoff, maxing out at the time
+     * specified by RECONNECT_TIMER_MAX_TIME_MILLISECONDS. The delay is jittered so that a fleet of
+     * devices that lost the service at the same time, such as after a Play Store update, doesn't
+     * reconnect in lockstep. Only one reconnect is scheduled at a time.
+     */
+    private void retryBillingServiceConnectionWithExponentialBackoff() {
+        synchronized (connectionLock) {
+            if (connectionState != ConnectionState.DISCONNECTED) {
+                return;
+            }
+            connectionState = ConnectionState.CONNECTING;
+        }
+        // wait somewhere between half of and the full backoff time
+        long delayMilliseconds = reconnectMilliseconds / 2 +
+                ThreadLocalRandom.current().nextLong(reconnectMilliseconds / 2 + 1);
+        billingHandler.postDelayed(() ->
+                        billingClient.startConnection(BillingDataSource.this),
+                delayMilliseconds);
+        reconnectMilliseconds = Math.min(reconnectMilliseconds * 2,
+                RECONNECT_TIMER_MAX_TIME_MILLISECONDS);
+    }
+
+    /**
+     * Runs a billing operation once the billing service is connected. Operations issued before
+     * billing setup finishes, or while the service is reconnecting, are queued and run in the
+     * order they were issued as soon as the connection is back, instead of failing with
+     * SERVICE_DISCONNECTED. Until the queue has been drained, new operations are queued behind it
+     * rather than run straight away, so they can't overtake the ones issued before them.
+     *
+     * @param operation the operation that calls the billing client
+     */
+    private void runWhenConnected(@NonNull Runnable operation) {
+        synchronized (connectionLock) {
+            if (connectionState != ConnectionState.CONNECTED) {
+                pendingBillingOperations.add(operation);
+                return;
+            }
+        }
+        operation.run();
+    }
+
+    /**
+     * Runs the billing operations queued by runWhenConnected, in order, including any queued
+     * while draining. Once the queue is empty, the connection is marked as CONNECTED, so later
+     * operations run straight away. Stops if the connection is lost again, leaving the remaining
+     * operations queued.
+     */
+    private void runPendingBillingOperations() {
+        while (true) {
+            Runnable operation;
+            synchronized (connectionLock) {
+                if (connectionState != ConnectionState.DRAINING) {
+                    return;
+                }
+                operation = pendingBillingOperations.poll();
+                if (null == operation) {
+                    connectionState = ConnectionState.CONNECTED;
+                    return;
+                }
+            }
+            operation.run();
+        }
+    }
+
+    /**
+     * @param sku a known SKU
+     * @return the ordinal of the SKU
+     */
+    private int getKnownSkuOrdinal(@NonNull String sku) {
+        int ordinal = skuTable.ordinal(sku);
+        assert ordinal != SkuTable.UNKNOWN_SKU;
+        return ordinal;
+    }
+
+    /**
+     * Derives the state of a single SKU from the SKU state snapshots. Like
+     * Transformations.distinctUntilChanged, this only emits when the state of this SKU changes, and
+     * it doesn't emit until the SKU is part of a snapshot.
+     *
+     * @param ordinal the ordinal of the SKU to observe the state of
+     * @return a LiveData that observes the state of the SKU
+     */
+    @NonNull
+    private LiveData<SkuState> deriveSkuStateLiveData(int ordinal) {
+        final MediatorLiveData<SkuState> skuState = new MediatorLiveData<>();
+        skuState.addSource(skuStateSnapshotLiveData, snapshot -> {
+            SkuState newSkuState = snapshot[ordinal];
+            if (null != newSkuState && newSkuState != skuState.getValue()) {
+                skuState.setValue(newSkuState);
+            }
+        });
+        return skuState;
+    }
+
+    /**
+     * Derives the SkuDetails of a single SKU from the SkuDetails snapshots, emitting when the
+     * SkuDetails of this SKU change. While the LiveData is active the SKU counts as observed, and
+     * its SkuDetails are requeried if they are stale.
+     *
+     * @param ordinal the ordinal of the SKU to observe the SkuDetails of
+     * @return a LiveData that observes the SkuDetails of the SKU
+     */
+    @NonNull
+    private LiveData<SkuDetails> deriveSkuDetailsLiveData(int ordinal) {
+        final MediatorLiveData<SkuDetails> details = new MediatorLiveData<SkuDetails>() {
+            @Override
+            protected void onActive() {
+                super.onActive();
+                billingHandler.post(() -> {
+                    skuDetailsObserverCounts[ordinal]++;
+                    if (isSkuDetailsStale(ordinal) && !skuDetailsInFlight[ordinal]) {
+                        Log.v(TAG, "Sku not fresh, requerying: " + skuTable.sku(ordinal));
+                        querySkuDetailsAsync();
+                    }
+                });
+            }
+
+            @Override
+            protected void onInactive() {
+                super.onInactive();
+                billingHandler.post(() -> skuDetailsObserverCounts[ordinal]--);
+            }
+        };
+        details.addSource(skuDetailsSnapshotLiveData, snapshot -> {
+            SkuDetails skuDetails = snapshot[ordinal];
+            if (null != skuDetails && skuDetails != details.getValue()) {
+                details.setValue(skuDetails);
+            }
+        });
+        return details;
+    }
+
+    /**
+     * Initializes the LiveData objects we're planning to emit. The per-SKU LiveData are created
+     * when they are first asked for, so the state and SKU details can be observed in other layers.
+     * The repository is responsible for mapping this data in ways that are more useful for the
+     * application.
+     */
+    private void initializeLiveData() {
+        billingFlowInProcess.setValue(false);
+    }
+
+    /**
+     * Emits the SkuDetails from the on-disk cache, so that titles and prices are available before
+     * the first SkuDetails query completes. SkuDetails cached less than SKU_DETAILS_REQUERY_TIME
+     * ago are treated as the last response for their SKU and won't be requeried until they go
+     * stale; the others are revalidated once they are observed.
+     */
+    private void loadCachedSkuDetails() {
+        List<SkuDetails> cachedSkuDetails = skuDetailsCache.load();
+        int cachedSkuCount = publishSkuDetails(cachedSkuDetails);
+        long now = System.currentTimeMillis();
+        int freshSkuCount = 0;
+        for (SkuDetails skuDetails : cachedSkuDetails) {
+            int ordinal = skuTable.ordinal(skuDetails.getSku());
+            long cacheAge = now - skuDetailsCache.getSaveTime(skuDetails.getSku());
+            if (ordinal != SkuTable.UNKNOWN_SKU && cacheAge >= 0
+                    && cacheAge < SKU_DETAILS_REQUERY_TIME) {
+                skuDetailsResponseTimes[ordinal] = SystemClock.elapsedRealtime() - cacheAge;
+                freshSkuCount++;
+            }
+        }
+        Log.d(TAG, "Loaded " + cachedSkuCount + " cached SkuDetails, " + freshSkuCount
+                + " fresh");
+    }
+
+    /**
+     * Emits the SKU state from the persisted entitlement snapshot, so that premium features and
+     * subscriptions are unlocked right after startup instead of once the first purchase query
+     * completes. The signature of every persisted purchase is verified again before it is trusted.
+     * The live purchase query replaces this state as soon as it returns.
+     * <p>
+     * Posted to the billing thread by the constructor, so it runs before any billing callback can
+     * publish SKU state.
+     */
+    @WorkerThread
+    private void loadEntitlementSnapshot() {
+        Map<String, EntitlementSnapshot.Entry> entries = entitlementSnapshot.load();
+        List<String> entitledSkus = new ArrayList<>();
+        List<Purchase> purchases = new ArrayList<>();
+        Map<String, SkuState> skuStateUpdate = new HashMap<>();
+        for (Map.Entry<String, EntitlementSnapshot.Entry> entry : entries.entrySet()) {
+            String sku = entry.getKey();
+            if (!skuTable.contains(sku)) {
+                continue;
+            }
+            Purchase purchase = entry.getValue().purchase;
+            if (null == purchase) {
+                skuStateUpdate.put(sku, SkuState.SKU_STATE_UNPURCHASED);
+            } else {
+                entitledSkus.add(sku);
+                purchases.add(purchase);
+            }
+        }
+        boolean[] valid = Security.verifyAll(publicKey, purchases);
+        for (int i = 0; i < purchases.size(); i++) {
+            Purchase purchase = purchases.get(i);
+            if (!valid[i] || purchase.getPurchaseState() != Purchase.PurchaseState.PURCHASED) {
+                Log.e(TAG, "Ignoring persisted entitlement with an invalid purchase.");
+                continue;
+            }
+            skuStateUpdate.put(entitledSkus.get(i),
+                    entries.get(entitledSkus.get(i)).acknowledged || purchase.isAcknowledged()
+                            ? SkuState.SKU_STATE_PURCHASED_AND_ACKNOWLEDGED
+                            : SkuState.SKU_STATE_PURCHASED);
+        }
+        if (skuStateUpdate.isEmpty()) {
+            return;
+        }
+        synchronized (skuStateLock) {
+            SkuState[] snapshot = skuStateSnapshot.clone();
+            for (Map.Entry<String, SkuState> entry : skuStateUpdate.entrySet()) {
+                snapshot[skuTable.ordinal(entry.getKey())] = entry.getValue();
+            }
+            skuStateSnapshot = snapshot;
+            skuStateSnapshotLiveData.postValue(snapshot);
+        }
+        Log.d(TAG, "Loaded " + skuStateUpdate.size() + " persisted entitlements.");
+    }
+
+    /**
+     * Persists a SKU state update to the entitlement snapshot. SKUs that are purchased are only
+     * persisted along with the verified purchase that entitles them; pending SKUs, and purchased
+     * SKUs without a purchase, such as consumables, are dropped from the snapshot.
+     *
+     * @param skuStateUpdate the SKU state update that was published
+     * @param purchases      the verified purchases that entitle the purchased SKUs, keyed by SKU
+     */
+    private void saveEntitlements(@NonNull Map<String, SkuState> skuStateUpdate,
+            @NonNull Map<String, Purchase> purchases) {
+        Map<String, EntitlementSnapshot.Entry> entries = new HashMap<>();
+        List<String> forgottenSkus = new ArrayList<>();
+        for (Map.Entry<String, SkuState> entry : skuStateUpdate.entrySet()) {
+            String sku = entry.getKey();
+            Purchase purchase = purchases.get(sku);
+            switch (entry.getValue()) {
+                case SKU_STATE_UNPURCHASED:
+                    entries.put(sku, new EntitlementSnapshot.Entry(null, false));
+                    break;
+                case SKU_STATE_PURCHASED:
+                case SKU_STATE_PURCHASED_AND_ACKNOWLEDGED:
+                    if (null != purchase) {
+                        entries.put(sku, new EntitlementSnapshot.Entry(purchase,
+                                entry.getValue() == SkuState.SKU_STATE_PURCHASED_AND_ACKNOWLEDGED));
+                        break;
+                    }
+                    // fall through
+                default:
+                    forgottenSkus.add(sku);
+                    break;
+            }
+        }
+        entitlementSnapshot.save(entries, forgottenSkus);
+    }
+
+    /**
+     * Applies SkuDetails to the SkuDetails snapshot and publishes the new snapshot.
+     *
+     * @param skuDetailsList the SkuDetails to publish
+     * @return the number of SkuDetails that belong to known SKUs
+     */
+    private int publishSkuDetails(@NonNull List<SkuDetails> skuDetailsList) {
+        int knownSkuCount = 0;
+        synchronized (skuDetailsLock) {
+            SkuDetails[] snapshot = skuDetailsSnapshot.clone();
+            for (SkuDetails skuDetails : skuDetailsList) {
+                String sku = skuDetails.getSku();
+                int ordinal = skuTable.ordinal(sku);
+                if (ordinal == SkuTable.UNKNOWN_SKU) {
+                    Log.e(TAG, "Unknown sku: " + sku);
+                    continue;
+                }
+                snapshot[ordinal] = skuDetails;
+                knownSkuCount++;
+            }
+            skuDetailsSnapshot = snapshot;
+            skuDetailsSnapshotLiveData.postValue(snapshot);
+        }
+        return knownSkuCount;
+    }
+
+    /**
+     * @param sku a known SKU
+     * @return the latest SkuDetails of the SKU, or null if they haven't been received
+     */
+    @Nullable
+    private SkuDetails getLatestSkuDetails(@NonNull String sku) {
+        int ordinal = getKnownSkuOrdinal(sku);
+        synchronized (skuDetailsLock) {
+            return skuDetailsSnapshot[ordinal];
+        }
+    }
+
+    /**
+     * @param ordinal the ordinal of the SKU
+     * @return true if the SkuDetails of the SKU were last received more than
+     * SKU_DETAILS_REQUERY_TIME ago.
+     */
+    @WorkerThread
+    private boolean isSkuDetailsStale(int ordinal) {
+        return SystemClock.elapsedRealtime() - skuDetailsResponseTimes[ordinal]
+                > SKU_DETAILS_REQUERY_TIME;
+    }
+
+    /**
+     * This is a stream of new purchases. These purchases can be the result of a billing flow or
+     * from another source. Every purchase is delivered to every subscriber; purchases that arrive
+     * together are delivered in one batch.
+     * <p>
+     * Posting to the stream never blocks the billing thread; purchases wait in the stream until
+     * there is a subscriber. Once PURCHASE_EVENT_CAPACITY purchases are waiting, further purchases
+     * stay in their consumption or acknowledgement journal and are posted again later.
+     *
+     * @return EventStream of the skus of each new purchase.
+     */
+    public final EventStream<List<String>> observeNewPurchases() {
+        return newPurchase;
+    }
+
+    /**
+     * This is a stream of consumed purchases from calling the consume method. Like
+     * {@link #observeNewPurchases()}, it is lossless, and a burst of consumed purchases is
+     * delivered as one batch.
+     *
+     * @return EventStream of the skus of each consumed purchase.
+     */
+    public final EventStream<List<String>> observeConsumedPurchases() {
+        return purchaseConsumed;
+    }
+
+    /**
+     * Returns whether or not the user has purchased a SKU. It does this by returning a
+     * MediatorLiveData that returns true if the SKU is in the PURCHASED state and the Purchase has
+     * been acknowledged. Every call for the same SKU returns the same LiveData while it is in use.
+     *
+     * @return a LiveData that observes the SKUs purchase state
+     */
+    public LiveData<Boolean> isPurchased(String sku) {
+        return isPurchasedSlots.get(getKnownSkuOrdinal(sku));
+    }
+
+    private void canPurchaseFromSkuDetailsAndPurchaseLiveData
+            (@NonNull MediatorLiveData<Boolean> result,
+                    @NonNull LiveData<SkuDetails> skuDetailsLiveData,
+                    @NonNull LiveData<SkuState> skuStateLiveData
+            ) {
+        SkuState skuState = skuStateLiveData.getValue();
+        if (null == skuDetailsLiveData.getValue()) {
+            result.setValue(false);
+        } else {
+            // this might be a transient state, but if we don't know about the purchase, we
+            // typically can purchase. Not valid purchases can be purchased.
+            result.setValue(null == skuState
+                    || skuState == SkuState.SKU_STATE_UNPURCHASED);
+        }
+    }
+
+    /**
+     * Returns whether or not the user can purchase a SKU. It does this by returning a LiveData
+     * transformation that returns true if the SKU is in the UNSPECIFIED state, as well as if we
+     * have skuDetails for the SKU. Every call for the same SKU returns the same LiveData while it
+     * is in use.
+     *
+     * @return a LiveData that observes the SKUs purchase state
+     */
+    public LiveData<Boolean> canPurchase(String sku) {
+        return canPurchaseSlots.get(getKnownSkuOrdinal(sku));
+    }
+
+    @NonNull
+    private LiveData<Boolean> deriveCanPurchaseLiveData(int ordinal) {
+        final MediatorLiveData<Boolean> result = new MediatorLiveData<>();
+        final LiveData<SkuDetails> skuDetailsLiveData = skuDetailsLiveDataSlots.get(ordinal);
+        final LiveData<SkuState> skuStateLiveData = skuStateLiveDataSlots.get(ordinal);
+        // set initial state from LiveData values before observation callbacks.
+        canPurchaseFromSkuDetailsAndPurchaseLiveData(result, skuDetailsLiveData, skuStateLiveData);
+        result.addSource(skuDetailsLiveData, skuDetails ->
+                canPurchaseFromSkuDetailsAndPurchaseLiveData(result, skuDetailsLiveData,
+                        skuStateLiveData));
+        result.addSource(skuStateLiveData, isValid ->
+                canPurchaseFromSkuDetailsAndPurchaseLiveData(result, skuDetailsLiveData,
+                        skuStateLiveData));
+        return result;
+    }
+
+    /**
+     * The title of our SKU from SkuDetails. Every call for the same SKU returns the same LiveData
+     * while it is in use.
+     *
+     * @param sku to get the title from
+     * @return title of the requested SKU as an observable LiveData<String>
+     */
+    public final LiveData<String> getSkuTitle(String sku) {
+        return skuTitleSlots.get(getKnownSkuOrdinal(sku));
+    }
+
+    // There's lots of information in SkuDetails, but our app only needs a few things, since our
+    // goods never go on sale, have introductory pricing, etc.
+
+    public final LiveData<String> getSkuPrice(String sku) {
+        return skuPriceSlots.get(getKnownSkuOrdinal(sku));
+    }
+
+    public final LiveData<String> getSkuDescription(String sku) {
+        return skuDescriptionSlots.get(getKnownSkuOrdinal(sku));
+    }
+    
+    /**
+     * Receives the result of a single chunk query from {@link #querySkuDetailsAsync()}}.
+     * <p>
+     * Store the SkuDetails and post them in the {@link #skuDetailsSnapshotLiveData}. This allows
+     * other parts of the app to use the {@link SkuDetails} to show SKU information and make
+     * purchases.
+     * Each chunk is posted as soon as it arrives, and a chunk that fails with a transient error is
+     * retried on its own. The response time of every SKU in a chunk that succeeds is recorded;
+     * SKUs in a chunk that fails stay stale, and are requeried the next time they are observed.
+     */
+    private void onSkuDetailsResponse(@NonNull SkuDetailsChunkQuery query,
+            @NonNull BillingResult billingResult, List<SkuDetails> skuDetailsList) {
+        int responseCode = billingResult.getResponseCode();
+        String debugMessage = billingResult.getDebugMessage();
+        switch (responseCode) {
+            case BillingClient.BillingResponseCode.OK:
+                Log.i(TAG, "onSkuDetailsResponse: " + responseCode + " " + debugMessage);
+                if (skuDetailsList == null || skuDetailsList.isEmpty()) {
+                    Log.e(TAG, "onSkuDetailsResponse: " +
+                            "Found null or empty SkuDetails. " +
+                            "Check to see if the SKUs you requested are correctly published " +
+                            "in the Google Play Console.");
+                } else {
+                    publishSkuDetails(skuDetailsList);
+                    skuDetailsCache.save(skuDetailsList);
+                }
+                break;
+            case BillingClient.BillingResponseCode.SERVICE_TIMEOUT:
+            case BillingClient.BillingResponseCode.SERVICE_DISCONNECTED:
+            case BillingClient.BillingResponseCode.SERVICE_UNAVAILABLE:
+            case BillingClient.BillingResponseCode.ERROR:
+                Log.e(TAG, "onSkuDetailsResponse: " + responseCode + " " + debugMessage);
+                if (query.retry()) {
+                    // the chunk is still in flight
+                    return;
+                }
+                break;
+            case BillingClient.BillingResponseCode.BILLING_UNAVAILABLE:
+            case BillingClient.BillingResponseCode.ITEM_UNAVAILABLE:
+            case BillingClient.BillingResponseCode.DEVELOPER_ERROR:
+                Log.e(TAG, "onSkuDetailsResponse: " + responseCode + " " + debugMessage);
+                break;
+            case BillingClient.BillingResponseCode.USER_CANCELED:
+                Log.i(TAG, "onSkuDetailsResponse: " + responseCode + " " + debugMessage);
+                break;
+            // These response codes are not expected.
+            case BillingClient.BillingResponseCode.FEATURE_NOT_SUPPORTED:
+            case BillingClient.BillingResponseCode.ITEM_ALREADY_OWNED:
+            case BillingClient.BillingResponseCode.ITEM_NOT_OWNED:
+            default:
+                Log.wtf(TAG, "onSkuDetailsResponse: " + responseCode + " " + debugMessage);
+        }
+        long now = SystemClock.elapsedRealtime();
+        for (String sku : query.skus) {
+            int ordinal = skuTable.ordinal(sku);
+            skuDetailsInFlight[ordinal] = false;
+            if (responseCode == BillingClient.BillingResponseCode.OK) {
+                skuDetailsResponseTimes[ordinal] = now;
+            }
+        }
+    }
+
+    /**
+     * Calls the billing client functions to query sku details for the inapp and subscription SKUs
+     * that are observed and stale. SKU details are useful for displaying item names and price
+     * lists to the user, and are required to make a purchase. Opening a screen that shows a few
+     * SKUs only requeries those SKUs, not the whole catalog.
+     * <p>
+     * Each SKU type is split into chunks of at most skuDetailsChunkSize SKUs, which are all queried
+     * at the same time.
+     */
+    private void querySkuDetailsAsync() {
+        runWhenConnected(() -> billingHandler.post(this::querySkuDetailsNow));
+    }
+
+    @WorkerThread
+    private void querySkuDetailsNow() {
+        querySkuDetailsChunks(BillingClient.SkuType.INAPP, knownInappSKUs);
+        querySkuDetailsChunks(BillingClient.SkuType.SUBS, knownSubscriptionSKUs);
+    }
+
+    @WorkerThread
+    private void querySkuDetailsChunks(@NonNull String skuType, @Nullable List<String> skus) {
+        if (null == skus || skus.isEmpty()) {
+            return;
+        }
+        List<String> staleSkus = new ArrayList<>();
+        for (String sku : skus) {
+            int ordinal = skuTable.ordinal(sku);
+            if (skuDetailsObserverCounts[ordinal] > 0 && !skuDetailsInFlight[ordinal]
+                    && isSkuDetailsStale(ordinal)) {
+                skuDetailsInFlight[ordinal] = true;
+                staleSkus.add(sku);
+            }
+        }
+        for (int start = 0; start < staleSkus.size(); start += skuDetailsChunkSize) {
+            List<String> chunk = staleSkus.subList(start,
+                    Math.min(staleSkus.size(), start + skuDetailsChunkSize));
+            new SkuDetailsChunkQuery(skuType, chunk).query();
+        }
+    }
+
+    /*
+        GPBL v4 now queries purchases asynchronously. This only gets active
+        purchases.
+     */
+    public void refreshPurchasesAsync() {
+        // issued from the billing thread, so the query is ordered after any callbacks, such as a
+        // disconnect, that are already waiting for it
+        billingHandler.post(() -> {
+            queryPurchasesAsync(BillingClient.SkuType.INAPP, true, null);
+            queryPurchasesAsync(BillingClient.SkuType.SUBS, true, null);
+            Log.d(TAG, "Refreshing purchases started.");
+        });
+    }
+
+    /**
+     * Queries the purchases of a SKU type, joining the outstanding query for that type if there
+     * is one. The resume, billing setup, subscription message, consume and upgrade paths can all
+     * ask for purchases at nearly the same time; this keeps them to a single query per SKU type
+     * that delivers the same result list to every caller.
+     *
+     * @param skuType  sku type, inapp or subscription, to query purchases for
+     * @param refresh  true if the result should be used to update the state of the known SKUs
+     * @param listener optional listener that receives the purchases indexed by SKU
+     */
+    private void queryPurchasesAsync(@NonNull String skuType, boolean refresh,
+            @Nullable PurchaseIndexListener listener) {
+        synchronized (purchasesQueriesInFlight) {
+            PurchasesQuery query = purchasesQueriesInFlight.get(skuType);
+            boolean joined = null != query;
+            if (!joined) {
+                query = new PurchasesQuery();
+                purchasesQueriesInFlight.put(skuType, query);
+            }
+            query.refresh |= refresh;
+            if (null != listener) {
+                query.listeners.add(listener);
+            }
+            if (joined) {
+                Log.d(TAG, "Joining outstanding " + skuType + " purchases query.");
+                return;
+            }
+        }
+        runWhenConnected(() -> billingClient.queryPurchasesAsync(skuType,
+                (billingResult, list) -> onQueryPurchasesResponse(skuType, billingResult, list)));
+    }
+
+    /**
+     * Receives the result of the single outstanding query for a SKU type and hands it to every
+     * caller that joined it. The purchases are indexed by SKU and the SKU state is processed only
+     * once, no matter how many callers joined the query.
+     */
+    private void onQueryPurchasesResponse(@NonNull String skuType,
+            @NonNull BillingResult billingResult, List<Purchase> list) {
+        final PurchasesQuery query;
+        synchronized (purchasesQueriesInFlight) {
+            query = purchasesQueriesInFlight.remove(skuType);
+        }
+        if (null == query) {
+            return;
+        }
+        PurchaseIndex purchaseIndex = PurchaseIndex.EMPTY;
+        if (billingResult.getResponseCode() != BillingClient.BillingResponseCode.OK) {
+            Log.e(TAG, "Problem getting " + skuType + " purchases: " +
+                    billingResult.getDebugMessage());
+        } else {
+            purchaseIndex = PurchaseIndex.build(list);
+            synchronized (purchaseIndexMap) {
+                purchaseIndexMap.put(skuType, purchaseIndex);
+            }
+            if (query.refresh) {
+                synchronized (purchasesQueriesInFlight) {
+                    purchasesRefreshTimes.put(skuType, query.startTime);
+                }
+                processPurchaseList(list, BillingClient.SkuType.SUBS.equals(skuType) ?
+                        knownSubscriptionSKUs : knownInappSKUs);
+            }
+        }
+        for (PurchaseIndexListener listener : query.listeners) {
+            listener.onPurchaseIndex(billingResult, purchaseIndex);
+        }
+    }
+
+    /**
+     * Used internally to get purchases from a requested set of SKUs. This is particularly important
+     * when changing subscriptions, as onPurchasesUpdated won't update the purchase state of a
+     * subscription that has been upgraded from.
+     * <p>
+     * This reads from the index of the last successful purchase query for the SKU type, so it
+     * doesn't go back to Google Play.
+     *
+     * @param skus    skus to get purchase information for
+     * @param skuType sku type, inapp or subscription, to get purchase information for.
+     * @return purchases
+     */
+    private List<Purchase> getPurchases(String[] skus, String skuType) {
+        PurchaseIndex purchaseIndex;
+        synchronized (purchaseIndexMap) {
+            purchaseIndex = purchaseIndexMap.get(skuType);
+        }
+        if (null == purchaseIndex) {
+            Log.e(TAG, "Purchases have not been queried for: " + skuType);
+            return new ArrayList<>();
+        }
+        return purchaseIndex.getAll(skus);
+    }
+
+    /**
+     * Consumes an in-app purchase. Interested listeners can watch the purchaseConsumed LiveEvent.
+     * To make things easy, you can send in a list of SKUs that are auto-consumed by the
+     * BillingDataSource.
+     */
+    public void consumeInappPurchase(@NonNull String sku) {
+        billingHandler.post(() -> queryPurchasesAsync(BillingClient.SkuType.INAPP, false,
+                (billingResult, purchaseIndex) -> {
+                    if (billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK) {
+                        // for right now any bundle of SKUs must all be consumable
+                        List<Purchase> skuPurchases = purchaseIndex.get(sku);
+                        if (!skuPurchases.isEmpty()) {
+                            consumePurchase(skuPurchases.get(0));
+                            return;
+                        }
+                    }
+                    Log.e(TAG, "Unable to consume SKU: " + sku + " Sku not found.");
+                }));
+    }
+
+    /**
+     * Calling this means that we have the most up-to-date information for a Sku in a purchase
+     * object. This uses the purchase state (Pending, Unspecified, Purchased) along with the
+     * acknowledged state.
+     *
+     * @param purchase       an up-to-date object to set the state for the Sku
+     * @param skuStateUpdate the pending SKU state update to record the state in
+     */
+    private void setSkuStateFromPurchase(@NonNull Purchase purchase,
+            @NonNull Map<String, SkuState> skuStateUpdate) {
+        for (String purchaseSku:purchase.getSkus()) {
+            if (!skuTable.contains(purchaseSku)) {
+                Log.e(TAG, "Unknown SKU " + purchaseSku + ". Check to make " +
+                        "sure SKU matches SKUS in the Play developer console.");
+            } else {
+                switch (purchase.getPurchaseState()) {
+                    case Purchase.PurchaseState.PENDING:
+                        skuStateUpdate.put(purchaseSku, SkuState.SKU_STATE_PENDING);
+                        break;
+                    case Purchase.PurchaseState.UNSPECIFIED_STATE:
+                        skuStateUpdate.put(purchaseSku, SkuState.SKU_STATE_UNPURCHASED);
+                        break;
+                    case Purchase.PurchaseState.PURCHASED:
+                        if (purchase.isAcknowledged()) {
+                            skuStateUpdate.put(purchaseSku,
+                                    SkuState.SKU_STATE_PURCHASED_AND_ACKNOWLEDGED);
+                        } else {
+                            skuStateUpdate.put(purchaseSku, SkuState.SKU_STATE_PURCHASED);
+                        }
+                        break;
+                    default:
+                        Log.e(TAG, "Purchase in unknown state: " + purchase.getPurchaseState());
+                }
+            }
+        }
+    }
+
+    /**
+     * Since we (mostly) are getting sku states when we actually make a purchase or update
+     * purchases, we keep some internal state when we do things like acknowledge or consume.
+     *
+     * @param skus        skus to change the state
+     * @param newSkuState the new state of the skus.
+     * @return the state of each known SKU that was changed
+     */
+    @NonNull
+    private Map<String, SkuState> setSkuState(@NonNull List<String> skus,
+            SkuState newSkuState) {
+        Map<String, SkuState> skuStateUpdate = new HashMap<>();
+        for (String sku : skus) {
+            if (!skuTable.contains(sku)) {
+                Log.e(TAG, "Unknown SKU " + sku + ". Check to make " +
+                        "sure SKU matches SKUS in the Play developer console.");
+            } else {
+                skuStateUpdate.put(sku, newSkuState);
+            }
+        }
+        publishSkuStates(skuStateUpdate);
+        return skuStateUpdate;
+    }
+
+    /**
+     * Applies an update to the SKU state snapshot and publishes the new snapshot. All of the
+     * SKUs in the update change together in a single main-thread dispatch, so observers never see
+     * a partially applied update. If several snapshots are published before the main thread runs,
+     * only the latest, which includes all of the updates, is delivered.
+     *
+     * @param skuStateUpdate the new state of each SKU that changed
+     */
+    private void publishSkuStates(@NonNull Map<String, SkuState> skuStateUpdate) {
+        if (skuStateUpdate.isEmpty()) {
+            return;
+        }
+        synchronized (skuStateLock) {
+            SkuState[] snapshot = skuStateSnapshot.clone();
+            for (Map.Entry<String, SkuState> entry : skuStateUpdate.entrySet()) {
+                snapshot[skuTable.ordinal(entry.getKey())] = entry.getValue();
+            }
+            skuStateSnapshot = snapshot;
+            skuStateSnapshotLiveData.postValue(snapshot);
+        }
+    }
+
+    /**
+     * Goes through each purchase and makes sure that the purchase state is processed and the state
+     * is available through LiveData. Verifies signature and acknowledges purchases. PURCHASED isn't
+     * returned until the purchase is acknowledged. * <p> https://developer.android
+     * .com/google/play/billing/billing_library_releases_notes#2_0_acknowledge
+     * <p>
+     * Developers can choose to acknowledge purchases from a server using the Google Play Developer
+     * API. The server has direct access to the user database, so using the Google Play Developer
+     * API for acknowledgement might be more reliable.
+     * <p>
+     * If the purchase token is not acknowledged within 3 days, then Google Play will automatically
+     * refund and revoke the purchase. This behavior helps ensure that users are not charged unless
+     * the user has successfully received access to the content. This eliminates a category of
+     * issues where users complain to developers that they paid for something that the app is not
+     * giving to them.
+     * <p>
+     * If a skusToUpdate list is passed-into this method, any purchases not in the list of purchases
+     * will have their state set to UNPURCHASED.
+     * <p>
+     * The state of every SKU in the list is published together as one snapshot once the whole list
+     * has been processed.
+     * <p>
+     * The list is processed asynchronously on the billing thread, since verifying signatures is
+     * too slow to do on the main thread. Lists are processed in the order they arrive.
+     *
+     * @param purchases    the List of purchases to process.
+     * @param skusToUpdate a list of skus that we want to update the state from --- this allows us
+     *                     to set the state of non-returned SKUs to UNPURCHASED.
+     */
+    private void processPurchaseList(List<Purchase> purchases, List<String> skusToUpdate) {
+        billingHandler.post(() -> processPurchaseListNow(purchases, skusToUpdate));
+    }
+
+    /**
+     * Does the work of processPurchaseList on the calling thread. Only called on the billing
+     * thread, or by benchmarks while nothing else is processing purchases.
+     */
+    @VisibleForTesting
+    @WorkerThread
+    void processPurchaseListNow(List<Purchase> purchases, List<String> skusToUpdate) {
+        HashSet<String> updatedSkus = new HashSet<>();
+        Map<String, SkuState> skuStateUpdate = new HashMap<>();
+        // the verified purchases of non-consumable SKUs, keyed by SKU
+        Map<String, Purchase> entitlements = new HashMap<>();
+        List<Purchase> purchasesToAcknowledge = new ArrayList<>();
+        if (null != purchases) {
+            Set<Purchase> validPurchases = verifySignatures(purchases);
+            for (final Purchase purchase : purchases) {
+                for (String sku : purchase.getSkus()) {
+                    if (!skuTable.contains(sku)) {
+                        Log.e(TAG, "Unknown SKU " + sku + ". Check to make " +
+                                "sure SKU matches SKUS in the Play developer console.");
+                        continue;
+                    }
+                    updatedSkus.add(sku);
+                }
+                // Global check to make sure all purchases are signed correctly.
+                // This check is best performed on your server.
+                int purchaseState = purchase.getPurchaseState();
+                if (purchaseState == Purchase.PurchaseState.PURCHASED) {
+                    if (!validPurchases.contains(purchase)) {
+                        Log.e(TAG, "Invalid signature on purchase. Check to make " +
+                                "sure your public key is correct.");
+                        continue;
+                    }
+                    // only set the purchased state after we've validated the signature.
+                    setSkuStateFromPurchase(purchase, skuStateUpdate);
+                    boolean isConsumable = false;
+                    for (String sku : purchase.getSkus()) {
+                        if (knownAutoConsumeSKUs.contains(sku)) {
+                            isConsumable = true;
+                        } else {
+                            if (isConsumable) {
+                                Log.e(TAG, "Purchase cannot contain a mixture of consumable" +
+                                        "and non-consumable items: " + purchase.getSkus().toString());
+                                isConsumable = false;
+                                break;
+                            }
+                        }
+                    }
+                    if ( isConsumable ) {
+                        consumePurchase(purchase);
+                    } else {
+                        for (String sku : purchase.getSkus()) {
+                            entitlements.put(sku, purchase);
+                        }
+                        if (!purchase.isAcknowledged()) {
+                            purchasesToAcknowledge.add(purchase);
+                        }
+                    }
+                } else {
+                    // make sure the state is set
+                    setSkuStateFromPurchase(purchase, skuStateUpdate);
+                }
+            }
+        } else{
+            Log.d(TAG, "Empty purchase list.");
+        }
+        // Clear purchase state of anything that didn't come with this purchase list if this is
+        // part of a refresh.
+        if (null != skusToUpdate) {
+            for (String sku : skusToUpdate) {
+                if (!updatedSkus.contains(sku)) {
+                    skuStateUpdate.put(sku, SkuState.SKU_STATE_UNPURCHASED);
+                }
+            }
+        }
+        publishSkuStates(skuStateUpdate);
+        saveEntitlements(skuStateUpdate, entitlements);
+        // acknowledge everything found in this purchase list as one batch
+        if (!purchasesToAcknowledge.isEmpty()) {
+            acknowledgementQueue.enqueueAll(purchasesToAcknowledge);
+        }
+    }
+
+    /**
+     * Called by the AcknowledgementQueue once a purchase has been acknowledged.
+     *
+     * @param purchase the purchase that was acknowledged
+     * @return false if the new purchase stream is full, so the queue hands the purchase over again
+     * later
+     */
+    private boolean onPurchaseAcknowledged(@NonNull Purchase purchase) {
+        // only the billing thread writes to the stream, so the room checked here is still there
+        // when the event is offered below
+        if (0 == newPurchase.remainingCapacity()) {
+            return false;
+        }
+        invalidatePurchases();
+        Map<String, SkuState> skuStateUpdate = setSkuState(purchase.getSkus(),
+                SkuState.SKU_STATE_PURCHASED_AND_ACKNOWLEDGED);
+        Map<String, Purchase> entitlements = new HashMap<>();
+        for (String sku : skuStateUpdate.keySet()) {
+            entitlements.put(sku, purchase);
+        }
+        saveEntitlements(skuStateUpdate, entitlements);
+        newPurchase.offer(purchase.getSkus());
+        return true;
+    }
+
+    /**
+     * Internal call only. Assumes that all signature checks have been completed and the purchase is
+     * ready to be consumed. If the purchase is already being consumed, does nothing.
+     *
+     * @param purchase purchase to consume
+     */
+    private void consumePurchase(@NonNull Purchase purchase) {
+        consumptionQueue.enqueue(purchase);
+    }
+
+    /**
+     * Called by the ConsumptionQueue once a purchase has been consumed.
+     *
+     * @param purchase the purchase that was consumed
+     * @return false if either purchase stream is full, so the queue hands the purchase over again
+     * later
+     */
+    private boolean onPurchaseConsumed(@NonNull Purchase purchase) {
+        // checked up front, so the purchase is never posted to just one of the streams
+        if (0 == purchaseConsumed.remainingCapacity() || 0 == newPurchase.remainingCapacity()) {
+            return false;
+        }
+        invalidatePurchases();
+        purchaseConsumed.offer(purchase.getSkus());
+        // Since we've consumed the purchase
+        saveEntitlements(setSkuState(purchase.getSkus(), SkuState.SKU_STATE_UNPURCHASED),
+                Collections.emptyMap());
+        // And this also qualifies as a new purchase
+        newPurchase.offer(purchase.getSkus());
+        return true;
+    }
+
+    /**
+     * Launch the billing flow. This will launch an external Activity for a result, so it requires
+     * an Activity reference. For subscriptions, it supports upgrading from one SKU type to another
+     * by passing in SKUs to be upgraded.
+     * <p>
+     * If the billing service isn't connected yet, the flow is launched once it is, unless the
+     * Activity has finished by then.
+     *
+     * @param activity    active activity to launch our billing flow from
+     * @param sku         SKU to be purchased
+     * @param upgradeSkus SKUs that the subscription can be upgraded from
+     */
+    public void launchBillingFlow(Activity activity, @NonNull String sku,
+            String... upgradeSkus) {
+        runWhenConnected(() -> runOnMainThread(() -> {
+            if (activity.isFinishing()) {
+                Log.w(TAG, "Activity finished before billing flow for " + sku + " could start.");
+                return;
+            }
+            launchBillingFlowNow(activity, sku, upgradeSkus);
+        }));
+    }
+
+    /**
+     * Runs an operation on the main thread: right away if this is the main thread, or posted to
+     * it otherwise. The billing flow has to be launched from the main thread, but operations
+     * waiting for the connection, and purchase query listeners, are run on the billing thread.
+     */
+    private static void runOnMainThread(@NonNull Runnable operation) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            operation.run();
+        } else {
+            mainHandler.post(operation);
+        }
+    }
+
+    private void launchBillingFlowNow(Activity activity, @NonNull String sku,
+            String... upgradeSkus) {
+        SkuDetails skuDetails = getLatestSkuDetails(sku);
+        if (null != skuDetails) {
+            if (null != upgradeSkus && upgradeSkus.length > 0) {
+                queryPurchasesAsync(BillingClient.SkuType.SUBS, false,
+                        (billingResult, purchaseIndex) -> runOnMainThread(() -> {
+                            List<Purchase> heldSubscriptions = purchaseIndex.getAll(upgradeSkus);
+                            BillingFlowParams.Builder billingFlowParamsBuilder = BillingFlowParams.newBuilder();
+                            billingFlowParamsBuilder.setSkuDetails(skuDetails);
+                            switch (heldSubscriptions.size()) {
+                                case 1:  // Upgrade flow!
+                                    Purchase purchase = heldSubscriptions.get(0);
+                                    billingFlowParamsBuilder.setSubscriptionUpdateParams(
+                                            BillingFlowParams.SubscriptionUpdateParams.newBuilder()
+                                                    .setOldSkuPurchaseToken(heldSubscriptions.get(0)
+                                                            .getPurchaseToken())
+                                                    .build()
+                                    );
+                                    BillingResult br = billingClient.launchBillingFlow(activity,
+                                            billingFlowParamsBuilder.build());
+                                    if (br.getResponseCode() == BillingClient.BillingResponseCode.OK) {
+                                        billingFlowInProcess.postValue(true);
+                                    } else {
+                                        Log.e(TAG, "Billing failed: + " + br.getDebugMessage());
+                                    }
+                                    break;
+                                case 0:
+                                    break;
+                                default:
+                                    Log.e(TAG, heldSubscriptions.size() +
+                                            " subscriptions subscribed to. Upgrade not possible.");
+                            }
+                        }));
+            } else {
+                BillingFlowParams.Builder billingFlowParamsBuilder = BillingFlowParams.newBuilder();
+                billingFlowParamsBuilder.setSkuDetails(skuDetails);
+                BillingResult br = billingClient.launchBillingFlow(activity,
+                        billingFlowParamsBuilder.build());
+                if (br.getResponseCode() == BillingClient.BillingResponseCode.OK) {
+                    billingFlowInProcess.postValue(true);
+                } else {
+                    Log.e(TAG, "Billing failed: + " + br.getDebugMessage());
+                }
+            }
+        } else {
+            Log.e(TAG, "SkuDetails not found for: " + sku);
+        }
+    }
+
+    /**
+     * Returns a LiveData of the number of purchases waiting to be acknowledged. Purchases that
+     * aren't acknowledged within 3 days are refunded, so a growing backlog is worth alerting on.
+     *
+     * @return LiveData of the acknowledgement queue depth
+     */
+    public LiveData<Integer> getPendingAcknowledgementCount() {
+        return acknowledgementQueue.getDepth();
+    }
+
+    /**
+     * Returns a LiveData of the purchase time of the oldest purchase waiting to be acknowledged,
+     * in milliseconds since the epoch, or 0 if there is none. The age of the backlog is the
+     * current time minus this value.
+     *
+     * @return LiveData of the purchase time of the oldest unacknowledged purchase
+     */
+    public LiveData<Long> getOldestPendingAcknowledgementTime() {
+        return acknowledgementQueue.getOldestPurchaseTime();
+    }
+
+    /**
+     * Returns the latency histograms of the calls made to Google Play, by call and response code.
+     * Comparing these with the time a screen takes to load shows whether it is waiting on Google
+     * Play or on the app's own processing.
+     *
+     * @return the live metrics; take a histogram from them to get a snapshot
+     */
+    @NonNull
+    public BillingCallMetrics getBillingCallMetrics() {
+        return billingCallMetrics;
+    }
+
+    /**
+     * Returns a LiveData that reports if a billing flow is in process, meaning that
+     * launchBillingFlow has returned BillingResponseCode.OK and onPurchasesUpdated hasn't yet been
+     * called.
+     *
+     * @return LiveData that indicates the known state of the billing flow.
+     */
+
+    public LiveData<Boolean> getBillingFlowInProcess() {
+        return billingFlowInProcess;
+    }
+
+    /**
+     * Called by the BillingLibrary when new purchases are detected; typically in response to a
+     * launchBillingFlow.
+     *
+     * @param billingResult result of the purchase flow.
+     * @param list          of new purchases.
+     */
+    @Override
+    public void onPurchasesUpdated(@NonNull BillingResult billingResult,
+            @Nullable List<Purchase> list) {
+        invalidatePurchases();
+        switch (billingResult.getResponseCode()) {
+            case BillingClient.BillingResponseCode.OK:
+                if (null != list) {
+                    processPurchaseList(list, null);
+                    return;
+                } else {
+                    Log.d(TAG, "Null Purchase List Returned from OK response!");
+                }
+                break;
+            case BillingClient.BillingResponseCode.USER_CANCELED:
+                Log.i(TAG, "onPurchasesUpdated: User canceled the purchase");
+                break;
+            case BillingClient.BillingResponseCode.ITEM_ALREADY_OWNED:
+                Log.i(TAG, "onPurchasesUpdated: The user already owns this item");
+                break;
+            case BillingClient.BillingResponseCode.DEVELOPER_ERROR:
+                Log.e(TAG, "onPurchasesUpdated: Developer error means that Google Play " +
+                        "does not recognize the configuration. If you are just getting started, " +
+                        "make sure you have configured the application correctly in the " +
+                        "Google Play Console. The SKU product ID must match and the APK you " +
+                        "are using must be signed with release keys."
+                );
+                break;
+            default:
+                Log.d(TAG, "BillingResult [" + billingResult.getResponseCode() + "]: "
+                        + billingResult.getDebugMessage());
+        }
+        billingFlowInProcess.postValue(false);
+    }
+
+    /**
+     * Ideally your implementation will comprise a secure server, rendering this check unnecessary.
+     * Purchases that have already been verified are remembered, so the RSA verification only runs
+     * once per purchase rather than on every refresh; the rest are verified together with
+     * Security.verifyAll. Must be called on the billing thread.
+     * @see [Security]
+     *
+     * @param purchases the purchases to verify
+     * @return the purchases that are in the PURCHASED state and correctly signed
+     */
+    @NonNull
+    private Set<Purchase> verifySignatures(@NonNull List<Purchase> purchases) {
+        Set<Purchase> validPurchases = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Purchase> unverifiedPurchases = new ArrayList<>();
+        List<String> unverifiedCacheKeys = new ArrayList<>();
+        for (Purchase purchase : purchases) {
+            if (purchase.getPurchaseState() != Purchase.PurchaseState.PURCHASED) {
+                continue;
+            }
+            String cacheKey = getVerifiedPurchaseCacheKey(purchase);
+            if (null != cacheKey && null != verifiedPurchaseCache.get(cacheKey)) {
+                validPurchases.add(purchase);
+            } else {
+                unverifiedPurchases.add(purchase);
+                unverifiedCacheKeys.add(cacheKey);
+            }
+        }
+        if (unverifiedPurchases.isEmpty()) {
+            return validPurchases;
+        }
+        boolean[] valid = Security.verifyAll(publicKey, unverifiedPurchases);
+        for (int i = 0; i < valid.length; i++) {
+            if (!valid[i]) {
+                continue;
+            }
+            validPurchases.add(unverifiedPurchases.get(i));
+            String cacheKey = unverifiedCacheKeys.get(i);
+            if (null != cacheKey) {
+                verifiedPurchaseCache.put(cacheKey, Boolean.TRUE);
+            }
+        }
+        return validPurchases;
+    }
+
+    /**
+     * The cache key is a hash of everything the signature covers, along with the signature itself.
+     * The signed JSON includes the purchase token, and hashing it as well means that a purchase
+     * whose JSON has been changed doesn't match the cached result for the original.
+     *
+     * @return the key for the purchase in the verifiedPurchaseCache, or null if it can't be made
+     */
+    @Nullable
+    private static String getVerifiedPurchaseCacheKey(@NonNull Purchase purchase) {
+        String originalJson = purchase.getOriginalJson();
+        String signature = purchase.getSignature();
+        if (null == originalJson || null == signature) {
+            return null;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(originalJson.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(signature.getBytes(StandardCharsets.UTF_8));
+            return Base64.encodeToString(digest.digest(), Base64.NO_WRAP);
+        } catch (NoSuchAlgorithmException e) {
+            // "SHA-256" is guaranteed to be available.
+            return null;
+        }
+    }
+
+    /**
+     * It's recommended to requery purchases during onResume. Quick app switches, dialogs and
+     * permission prompts all resume the Activity, though, so purchases are only requeried if the
+     * last refresh is older than the minimum resume refresh interval, or if purchases have
+     * changed since, such as through onPurchasesUpdated or a consume.
+     */
+    @OnLifecycleEvent(Lifecycle.Event.ON_RESUME)
+    public void resume() {
+        Log.d(TAG, "ON_RESUME");
+        Boolean billingInProcess = billingFlowInProcess.getValue();
+
+        // this just avoids an extra purchase refresh after we finish a billing flow
+        if (null == billingInProcess || !billingInProcess) {
+            billingHandler.post(this::refreshPurchasesOnResume);
+        }
+    }
+
+    @WorkerThread
+    private void refreshPurchasesOnResume() {
+        boolean connected;
+        synchronized (connectionLock) {
+            connected = connectionState == ConnectionState.CONNECTED;
+        }
+        if (!connected) {
+            // purchases are refreshed once billing setup finishes
+            return;
+        }
+        if (isPurchasesRefreshNeeded()) {
+            resumeRefreshCount.incrementAndGet();
+            refreshPurchasesAsync();
+        } else {
+            skippedResumeRefreshCount.incrementAndGet();
+            Log.d(TAG, "Purchases are fresh, skipping refresh.");
+        }
+    }
+
+    /**
+     * Sets how long purchases are considered fresh after a refresh, during which resuming doesn't
+     * requery them. Purchases that have been changed are always requeried.
+     *
+     * @param milliseconds the minimum time between refreshes on resume, or 0 to refresh on every
+     *                     resume
+     */
+    public void setMinResumeRefreshInterval(long milliseconds) {
+        if (milliseconds < 0) {
+            throw new IllegalArgumentException("milliseconds must not be negative");
+        }
+        minResumeRefreshIntervalMilliseconds = milliseconds;
+    }
+
+    /**
+     * @return the number of times resuming has refreshed purchases
+     */
+    public long getResumeRefreshCount() {
+        return resumeRefreshCount.get();
+    }
+
+    /**
+     * @return the number of times resuming has skipped refreshing purchases because they were
+     * fresh
+     */
+    public long getSkippedResumeRefreshCount() {
+        return skippedResumeRefreshCount.get();
+    }
+
+    /**
+     * Marks the purchases as changed, so the next resume refreshes them no matter how recently
+     * they were last refreshed.
+     */
+    private void invalidatePurchases() {
+        purchasesInvalidatedTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * @return true if either SKU type hasn't been refreshed successfully within the minimum resume
+     * refresh interval, or if purchases have been invalidated since it was last refreshed.
+     */
+    private boolean isPurchasesRefreshNeeded() {
+        long now = SystemClock.elapsedRealtime();
+        long invalidatedTime = purchasesInvalidatedTime;
+        synchronized (purchasesQueriesInFlight) {
+            for (String skuType : new String[]{BillingClient.SkuType.INAPP,
+                    BillingClient.SkuType.SUBS}) {
+                Long refreshTime = purchasesRefreshTimes.get(skuType);
+                // a refresh issued in the same millisecond as the invalidation may have missed it
+                if (null == refreshTime || refreshTime <= invalidatedTime
+                        || now - refreshTime >= minResumeRefreshIntervalMilliseconds) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Receives the purchases of a SKU type, indexed by SKU. If the query failed, the index is
+     * empty.
+     */
+    private interface PurchaseIndexListener {
+        void onPurchaseIndex(@NonNull BillingResult billingResult,
+                @NonNull PurchaseIndex purchaseIndex);
+    }
+
+    /**
+     * The callers waiting on an outstanding queryPurchasesAsync call for a single SKU type.
+     */
+    private static class PurchasesQuery {
+        final List<PurchaseIndexListener> listeners = new ArrayList<>();
+        final long startTime = SystemClock.elapsedRealtime();
+        // set if any of the callers wants the result to update the SKU state
+        boolean refresh;
+    }
+
+    /**
+     * A SkuDetails query for one chunk of the SKUs of a single type. Each chunk receives its own
+     * response, so a chunk that fails can be retried without requerying the rest of the type.
+     */
+    private class SkuDetailsChunkQuery implements SkuDetailsResponseListener {
+        final private String skuType;
+        final private List<String> skus;
+        private int attempts = 0;
+
+        SkuDetailsChunkQuery(@NonNull String skuType, @NonNull List<String> skus) {
+            this.skuType = skuType;
+            this.skus = skus;
+        }
+
+        void query() {
+            attempts++;
+            billingClient.querySkuDetailsAsync(SkuDetailsParams.newBuilder()
+                    .setType(skuType)
+                    .setSkusList(skus)
+                    .build(), this);
+        }
+
+        /**
+         * Schedules the chunk to be queried again with exponential backoff.
+         *
+         * @return false if the chunk has run out of attempts
+         */
+        boolean retry() {
+            if (attempts >= SKU_DETAILS_MAX_ATTEMPTS) {
+                Log.e(TAG, "Giving up on SkuDetails for " + skus.size() + " SKUs after "
+                        + attempts + " attempts.");
+                return false;
+            }
+            long retryMilliseconds = SKU_DETAILS_RETRY_TIMER_START_MILLISECONDS << (attempts - 1);
+            Log.w(TAG, "Retrying SkuDetails for " + skus.size() + " SKUs in "
+                    + retryMilliseconds + "ms");
+            billingHandler.postDelayed(() -> runWhenConnected(this::query), retryMilliseconds);
+            return true;
+        }
+
+        @Override
+        public void onSkuDetailsResponse(@NonNull BillingResult billingResult,
+                List<SkuDetails> skuDetailsList) {
+            // the billing client delivers its callbacks on the billing thread
+            BillingDataSource.this.onSkuDetailsResponse(this, billingResult, skuDetailsList);
+        }
+    }
+
+    private enum ConnectionState {
+        DISCONNECTED,
+        CONNECTING,
+        // connected, but the operations queued while disconnected haven't all been issued yet
+        DRAINING,
+        CONNECTED,
+    }
+
+    private enum SkuState {
+        SKU_STATE_UNPURCHASED,
+        SKU_STATE_PENDING,
+        SKU_STATE_PURCHASED,
+        SKU_STATE_PURCHASED_AND_ACKNOWLEDGED,
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+import android.os.Handler;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.ConsumeParams;
+import com.android.billingclient.api.Purchase;
+
+/**
+ * Consumes purchases of auto-consumed SKUs. At most MAX_CONCURRENT_CONSUMES purchases are consumed
+ * in parallel, and a consume that still fails after MAX_ATTEMPTS attempts is left in the journal
+ * until the queue is next created or the purchase is enqueued again.
+ */
+class ConsumptionQueue extends PurchaseRetryQueue {
+    private static final String TAG = "TrivialDrive:" + ConsumptionQueue.class.getSimpleName();
+    private static final int MAX_CONCURRENT_CONSUMES = 2;
+    private static final int MAX_ATTEMPTS = 6;
+    private static final long RETRY_TIMER_MAX_TIME_MILLISECONDS = 1000L * 60L; // 1 min
+
+    private final BillingClientAdapter billingClient;
+
+    /**
+     * @param billingClient billing client used to consume purchases
+     * @param journal       journal that holds the outstanding purchases
+     * @param handler       handler used to schedule retries
+     * @param listener      receives the purchases that have been consumed
+     */
+    ConsumptionQueue(@NonNull BillingClientAdapter billingClient, @NonNull PurchaseJournal journal,
+            @NonNull Handler handler, @NonNull Listener listener) {
+        super(TAG, "consume", journal, handler, listener, MAX_CONCURRENT_CONSUMES, MAX_ATTEMPTS,
+                RETRY_TIMER_MAX_TIME_MILLISECONDS);
+        this.billingClient = billingClient;
+    }
+
+    @Override
+    void dispatch(@NonNull Purchase purchase, @NonNull ResponseListener listener) {
+        billingClient.consumeAsync(ConsumeParams.newBuilder()
+                .setPurchaseToken(purchase.getPurchaseToken())
+                .build(), (billingResult, purchaseToken) -> listener.onResponse(billingResult));
+    }
+}
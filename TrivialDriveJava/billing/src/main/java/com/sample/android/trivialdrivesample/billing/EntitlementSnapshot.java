@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.billingclient.api.Purchase;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A persisted snapshot of the last known entitlement of each SKU, so that the BillingDataSource can
+ * emit purchase state on a cold start before the first purchase query has completed.
+ * <p>
+ * A SKU is either known to be unpurchased, or entitled by a purchase. Entitlements keep the
+ * original JSON and signature of the purchase that granted them, so they are only trusted again
+ * once the signature has been verified; the snapshot on its own can't grant anything.
+ */
+class EntitlementSnapshot {
+    private static final String TAG = "TrivialDrive:" + EntitlementSnapshot.class.getSimpleName();
+    private static final String PREFERENCES_NAME = "entitlement_snapshot";
+    private static final String KEY_ORIGINAL_JSON = "originalJson";
+    private static final String KEY_SIGNATURE = "signature";
+    private static final String KEY_ACKNOWLEDGED = "acknowledged";
+
+    private final SharedPreferences preferences;
+
+    EntitlementSnapshot(@NonNull Context context) {
+        preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return the entitlement of every SKU in the snapshot, keyed by SKU. Entries that can no
+     * longer be parsed are skipped.
+     */
+    @NonNull
+    Map<String, Entry> load() {
+        Map<String, Entry> entries = new HashMap<>();
+        for (Map.Entry<String, ?> preference : preferences.getAll().entrySet()) {
+            try {
+                JSONObject entry = new JSONObject((String) preference.getValue());
+                Purchase purchase = entry.has(KEY_ORIGINAL_JSON) ? new Purchase(
+                        entry.getString(KEY_ORIGINAL_JSON), entry.getString(KEY_SIGNATURE)) : null;
+                entries.put(preference.getKey(),
+                        new Entry(purchase, entry.optBoolean(KEY_ACKNOWLEDGED, false)));
+            } catch (JSONException | ClassCastException e) {
+                Log.w(TAG, "Discarding entitlement for " + preference.getKey() + ": "
+                        + e.getMessage());
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Updates the snapshot in a single write. The write happens asynchronously.
+     *
+     * @param entries       the new entitlement of each SKU that changed, keyed by SKU
+     * @param forgottenSkus SKUs whose entitlement is no longer known, such as pending purchases
+     */
+    void save(@NonNull Map<String, Entry> entries, @NonNull Collection<String> forgottenSkus) {
+        if (entries.isEmpty() && forgottenSkus.isEmpty()) {
+            return;
+        }
+        SharedPreferences.Editor editor = preferences.edit();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            Purchase purchase = entry.getValue().purchase;
+            JSONObject json = new JSONObject();
+            try {
+                if (null != purchase) {
+                    json.put(KEY_ORIGINAL_JSON, purchase.getOriginalJson())
+                            .put(KEY_SIGNATURE, purchase.getSignature())
+                            .put(KEY_ACKNOWLEDGED, entry.getValue().acknowledged);
+                }
+            } catch (JSONException e) {
+                Log.e(TAG, "Unable to save entitlement: " + e.getMessage());
+                editor.remove(entry.getKey());
+                continue;
+            }
+            editor.putString(entry.getKey(), json.toString());
+        }
+        for (String sku : forgottenSkus) {
+            editor.remove(sku);
+        }
+        editor.apply();
+    }
+
+    /**
+     * The entitlement of a SKU.
+     */
+    static class Entry {
+        // the purchase that entitles the user to the SKU, or null if the SKU is unpurchased
+        @Nullable
+        final Purchase purchase;
+        // whether the purchase has been acknowledged; Purchase.isAcknowledged() only reflects the
+        // state when the purchase was queried
+        final boolean acknowledged;
+
+        Entry(@Nullable Purchase purchase, boolean acknowledged) {
+            this.purchase = purchase;
+            this.acknowledged = acknowledged;
+        }
+    }
+}
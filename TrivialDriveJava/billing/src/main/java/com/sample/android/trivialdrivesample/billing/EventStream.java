@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sample.android.trivialdrivesample.billing;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A lossless stream of events that fans out to any number of subscribers on the main thread.
+ * Unlike a LiveData fed by postValue, events posted before the main thread gets to run are never
+ * collapsed into the last one: every event is delivered, in order, to every subscriber.
+ * <p>
+ * Events are delivered in batches. Everything that was posted since the last delivery arrives in a
+ * single call, so a subscriber can handle a burst of events as one unit of work.
+ * <p>
+ * Events wait in memory until there is a subscriber to deliver them to, and the stream holds at
+ * most capacity of them. Once it is full, {@link #offer(Object)} fails instead of blocking, so
+ * the stream can be written to from the billing thread even while the main thread isn't draining
+ * it, such as while the app is in the background. A producer that is turned away keeps the event
+ * on its side and offers it again later.
+ *
+ * @param <T> the type of the events
+ */
+public class EventStream<T> {
+    /**
+     * Receives the events of a stream.
+     */
+    public interface Subscriber<T> {
+        /**
+         * @param events every event posted since the last delivery, oldest first
+         */
+        @MainThread
+        void onEvents(@NonNull List<T> events);
+    }
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final int capacity;
+    // events waiting to be delivered; guarded by this
+    private List<T> pendingEvents = new ArrayList<>();
+    private final List<Subscriber<T>> subscribers = new CopyOnWriteArrayList<>();
+    // whether a delivery has been posted to the main thread; guarded by this
+    private boolean deliveryScheduled = false;
+
+    /**
+     * @param capacity the most events the stream holds before offers fail
+     */
+    public EventStream(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Posts an event if there is room for it. Never blocks.
+     *
+     * @param event the event to post
+     * @return false if the stream is full, in which case the event isn't posted
+     */
+    @AnyThread
+    public synchronized boolean offer(@NonNull T event) {
+        if (pendingEvents.size() >= capacity) {
+            return false;
+        }
+        pendingEvents.add(event);
+        scheduleDelivery();
+        return true;
+    }
+
+    /**
+     * @return the number of events the stream can take before offers fail. A producer that is
+     * the only one writing to the stream can rely on at least this much room.
+     */
+    @AnyThread
+    public synchronized int remainingCapacity() {
+        return capacity - pendingEvents.size();
+    }
+
+    /**
+     * Starts delivering events to a subscriber, beginning with any events that are waiting.
+     *
+     * @param subscriber the subscriber to add
+     */
+    @MainThread
+    public void subscribe(@NonNull Subscriber<T> subscriber) {
+        subscribers.add(subscriber);
+        synchronized (this) {
+            scheduleDelivery();
+        }
+    }
+
+    /**
+     * Stops delivering events to a subscriber.
+     *
+     * @param subscriber the subscriber to remove
+     */
+    @MainThread
+    public void unsubscribe(@NonNull Subscriber<T> subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    private void scheduleDelivery() {
+        if (!deliveryScheduled && !pendingEvents.isEmpty()) {
+            deliveryScheduled = true;
+            mainHandler.post(this::deliver);
+        }
+    }
+
+    @MainThread
+    private void deliver() {
+        List<T> events;
+        synchronized (this) {
+            deliveryScheduled = false;
+            if (subscribers.isEmpty() || pendingEvents.isEmpty()) {
+                // the events wait for the next subscriber
+                return;
+            }
+            events = Collections.unmodifiableList(pendingEvents);
+            pendingEvents = new ArrayList<>();
+        }
+        for (Subscriber<T> subscriber : subscribers) {
+            subscriber.onEvents(events);
+        }
+    }
+}
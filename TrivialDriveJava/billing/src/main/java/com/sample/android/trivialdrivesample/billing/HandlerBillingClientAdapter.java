@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+import android.app.Activity;
+import android.os.Handler;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.AcknowledgePurchaseParams;
+import com.android.billingclient.api.AcknowledgePurchaseResponseListener;
+import com.android.billingclient.api.BillingClientStateListener;
+import com.android.billingclient.api.BillingFlowParams;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.ConsumeParams;
+import com.android.billingclient.api.ConsumeResponseListener;
+import com.android.billingclient.api.PurchasesResponseListener;
+import com.android.billingclient.api.SkuDetailsParams;
+import com.android.billingclient.api.SkuDetailsResponseListener;
+
+/**
+ * A BillingClientAdapter that delivers every callback on the thread of a Handler. The Billing
+ * Library calls back on the main thread; this moves the work done in response, such as processing
+ * purchase lists, off of it.
+ * <p>
+ * launchBillingFlow isn't asynchronous, so it still runs on the thread that calls it.
+ */
+class HandlerBillingClientAdapter implements BillingClientAdapter {
+    private final BillingClientAdapter billingClient;
+    private final Handler handler;
+
+    /**
+     * @param billingClient the billing client to deliver the callbacks of
+     * @param handler       handler of the thread to deliver the callbacks on
+     */
+    HandlerBillingClientAdapter(@NonNull BillingClientAdapter billingClient,
+            @NonNull Handler handler) {
+        this.billingClient = billingClient;
+        this.handler = handler;
+    }
+
+    @Override
+    public void startConnection(@NonNull BillingClientStateListener listener) {
+        billingClient.startConnection(new BillingClientStateListener() {
+            @Override
+            public void onBillingSetupFinished(@NonNull BillingResult billingResult) {
+                handler.post(() -> listener.onBillingSetupFinished(billingResult));
+            }
+
+            @Override
+            public void onBillingServiceDisconnected() {
+                handler.post(listener::onBillingServiceDisconnected);
+            }
+        });
+    }
+
+    @Override
+    public void querySkuDetailsAsync(@NonNull SkuDetailsParams params,
+            @NonNull SkuDetailsResponseListener listener) {
+        billingClient.querySkuDetailsAsync(params, (billingResult, skuDetailsList) ->
+                handler.post(() -> listener.onSkuDetailsResponse(billingResult, skuDetailsList)));
+    }
+
+    @Override
+    public void queryPurchasesAsync(@NonNull String skuType,
+            @NonNull PurchasesResponseListener listener) {
+        billingClient.queryPurchasesAsync(skuType, (billingResult, purchases) ->
+                handler.post(() -> listener.onQueryPurchasesResponse(billingResult, purchases)));
+    }
+
+    @Override
+    public void consumeAsync(@NonNull ConsumeParams params,
+            @NonNull ConsumeResponseListener listener) {
+        billingClient.consumeAsync(params, (billingResult, purchaseToken) ->
+                handler.post(() -> listener.onConsumeResponse(billingResult, purchaseToken)));
+    }
+
+    @Override
+    public void acknowledgePurchase(@NonNull AcknowledgePurchaseParams params,
+            @NonNull AcknowledgePurchaseResponseListener listener) {
+        billingClient.acknowledgePurchase(params, billingResult ->
+                handler.post(() -> listener.onAcknowledgePurchaseResponse(billingResult)));
+    }
+
+    @NonNull
+    @Override
+    public BillingResult launchBillingFlow(@NonNull Activity activity,
+            @NonNull BillingFlowParams params) {
+        return billingClient.launchBillingFlow(activity, params);
+    }
+}
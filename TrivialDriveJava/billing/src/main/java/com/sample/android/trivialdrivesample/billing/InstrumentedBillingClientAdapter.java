@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+import android.app.Activity;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.AcknowledgePurchaseParams;
+import com.android.billingclient.api.AcknowledgePurchaseResponseListener;
+import com.android.billingclient.api.BillingClientStateListener;
+import com.android.billingclient.api.BillingFlowParams;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.ConsumeParams;
+import com.android.billingclient.api.ConsumeResponseListener;
+import com.android.billingclient.api.PurchasesResponseListener;
+import com.android.billingclient.api.SkuDetailsParams;
+import com.android.billingclient.api.SkuDetailsResponseListener;
+
+/**
+ * A BillingClientAdapter that times every call made through it and records the latencies in
+ * BillingCallMetrics, before handing the result on to the caller's listener.
+ */
+class InstrumentedBillingClientAdapter implements BillingClientAdapter {
+    private final BillingClientAdapter billingClient;
+    private final BillingCallMetrics metrics;
+
+    /**
+     * @param billingClient the billing client to time
+     * @param metrics       receives the latency of every call
+     */
+    InstrumentedBillingClientAdapter(@NonNull BillingClientAdapter billingClient,
+            @NonNull BillingCallMetrics metrics) {
+        this.billingClient = billingClient;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void startConnection(@NonNull BillingClientStateListener listener) {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        billingClient.startConnection(new BillingClientStateListener() {
+            @Override
+            public void onBillingSetupFinished(@NonNull BillingResult billingResult) {
+                record(BillingCallMetrics.Call.START_CONNECTION, billingResult, startNanos);
+                listener.onBillingSetupFinished(billingResult);
+            }
+
+            @Override
+            public void onBillingServiceDisconnected() {
+                listener.onBillingServiceDisconnected();
+            }
+        });
+    }
+
+    @Override
+    public void querySkuDetailsAsync(@NonNull SkuDetailsParams params,
+            @NonNull SkuDetailsResponseListener listener) {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        billingClient.querySkuDetailsAsync(params, (billingResult, skuDetailsList) -> {
+            record(BillingCallMetrics.Call.QUERY_SKU_DETAILS, billingResult, startNanos);
+            listener.onSkuDetailsResponse(billingResult, skuDetailsList);
+        });
+    }
+
+    @Override
+    public void queryPurchasesAsync(@NonNull String skuType,
+            @NonNull PurchasesResponseListener listener) {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        billingClient.queryPurchasesAsync(skuType, (billingResult, purchases) -> {
+            record(BillingCallMetrics.Call.QUERY_PURCHASES, billingResult, startNanos);
+            listener.onQueryPurchasesResponse(billingResult, purchases);
+        });
+    }
+
+    @Override
+    public void consumeAsync(@NonNull ConsumeParams params,
+            @NonNull ConsumeResponseListener listener) {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        billingClient.consumeAsync(params, (billingResult, purchaseToken) -> {
+            record(BillingCallMetrics.Call.CONSUME, billingResult, startNanos);
+            listener.onConsumeResponse(billingResult, purchaseToken);
+        });
+    }
+
+    @Override
+    public void acknowledgePurchase(@NonNull AcknowledgePurchaseParams params,
+            @NonNull AcknowledgePurchaseResponseListener listener) {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        billingClient.acknowledgePurchase(params, billingResult -> {
+            record(BillingCallMetrics.Call.ACKNOWLEDGE_PURCHASE, billingResult, startNanos);
+            listener.onAcknowledgePurchaseResponse(billingResult);
+        });
+    }
+
+    /**
+     * Times how long it takes to launch the billing flow. The time the user then spends in the
+     * flow isn't part of the latency.
+     */
+    @NonNull
+    @Override
+    public BillingResult launchBillingFlow(@NonNull Activity activity,
+            @NonNull BillingFlowParams params) {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        BillingResult billingResult = billingClient.launchBillingFlow(activity, params);
+        record(BillingCallMetrics.Call.LAUNCH_BILLING_FLOW, billingResult, startNanos);
+        return billingResult;
+    }
+
+    private void record(@NonNull BillingCallMetrics.Call call,
+            @NonNull BillingResult billingResult, long startNanos) {
+        metrics.record(call, billingResult.getResponseCode(),
+                SystemClock.elapsedRealtimeNanos() - startNanos);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.billingclient.api.Purchase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable index from SKU to the purchases that contain it. One is built for every purchase
+ * list that Google Play returns, so that purchases can be looked up by SKU without scanning the
+ * whole list for each SKU.
+ */
+class PurchaseIndex {
+    static final PurchaseIndex EMPTY = new PurchaseIndex(Collections.emptyMap());
+
+    private final Map<String, List<Purchase>> purchasesBySku;
+
+    private PurchaseIndex(@NonNull Map<String, List<Purchase>> purchasesBySku) {
+        this.purchasesBySku = purchasesBySku;
+    }
+
+    /**
+     * Builds the index for a purchase list.
+     *
+     * @param purchases the purchases returned by Google Play
+     * @return an index of the purchases by SKU
+     */
+    @NonNull
+    static PurchaseIndex build(@Nullable List<Purchase> purchases) {
+        if (null == purchases || purchases.isEmpty()) {
+            return EMPTY;
+        }
+        Map<String, List<Purchase>> purchasesBySku = new HashMap<>();
+        for (Purchase purchase : purchases) {
+            for (String sku : purchase.getSkus()) {
+                List<Purchase> skuPurchases = purchasesBySku.get(sku);
+                if (null == skuPurchases) {
+                    skuPurchases = new ArrayList<>(1);
+                    purchasesBySku.put(sku, skuPurchases);
+                } else if (skuPurchases.get(skuPurchases.size() - 1) == purchase) {
+                    // the same SKU is listed more than once in this purchase
+                    continue;
+                }
+                skuPurchases.add(purchase);
+            }
+        }
+        return new PurchaseIndex(purchasesBySku);
+    }
+
+    /**
+     * @param sku the SKU to look up
+     * @return the purchases that contain the SKU
+     */
+    @NonNull
+    List<Purchase> get(@NonNull String sku) {
+        List<Purchase> skuPurchases = purchasesBySku.get(sku);
+        return null == skuPurchases ? Collections.emptyList() :
+                Collections.unmodifiableList(skuPurchases);
+    }
+
+    /**
+     * @param skus the SKUs to look up
+     * @return the purchases that contain any of the SKUs. A purchase that contains more than one
+     * of the SKUs is only returned once.
+     */
+    @NonNull
+    List<Purchase> getAll(@NonNull String... skus) {
+        if (skus.length == 1) {
+            return get(skus[0]);
+        }
+        List<Purchase> result = new ArrayList<>();
+        Set<String> purchaseTokens = new HashSet<>();
+        for (String sku : skus) {
+            for (Purchase purchase : get(sku)) {
+                if (purchaseTokens.add(purchase.getPurchaseToken())) {
+                    result.add(purchase);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.Purchase;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A small persisted journal of purchases that still have work outstanding, keyed by purchase
+ * token. Each entry keeps the original JSON and signature of the purchase, so the Purchase can be
+ * rebuilt after the process restarts without having to query Google Play for it again.
+ */
+class PurchaseJournal {
+    private static final String TAG = "TrivialDrive:" + PurchaseJournal.class.getSimpleName();
+    private static final String KEY_ORIGINAL_JSON = "originalJson";
+    private static final String KEY_SIGNATURE = "signature";
+
+    private final SharedPreferences preferences;
+
+    /**
+     * @param context Android context used to open the journal
+     * @param name    name of the journal; each journal is stored separately
+     */
+    PurchaseJournal(@NonNull Context context, @NonNull String name) {
+        preferences = context.getSharedPreferences(name, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Adds purchases to the journal in a single write. Purchases that are already in the journal
+     * are left as they are. The write happens asynchronously.
+     *
+     * @param purchases the purchases to add
+     */
+    void add(@NonNull Collection<Purchase> purchases) {
+        SharedPreferences.Editor editor = preferences.edit();
+        for (Purchase purchase : purchases) {
+            String purchaseToken = purchase.getPurchaseToken();
+            if (preferences.contains(purchaseToken)) {
+                continue;
+            }
+            try {
+                editor.putString(purchaseToken, new JSONObject()
+                        .put(KEY_ORIGINAL_JSON, purchase.getOriginalJson())
+                        .put(KEY_SIGNATURE, purchase.getSignature())
+                        .toString());
+            } catch (JSONException e) {
+                Log.e(TAG, "Unable to journal purchase: " + e.getMessage());
+            }
+        }
+        editor.apply();
+    }
+
+    /**
+     * Removes a purchase from the journal. The write happens asynchronously.
+     *
+     * @param purchaseToken the token of the purchase to remove
+     */
+    void remove(@NonNull String purchaseToken) {
+        preferences.edit().remove(purchaseToken).apply();
+    }
+
+    /**
+     * @return every purchase in the journal. Entries that can no longer be parsed are dropped.
+     */
+    @NonNull
+    List<Purchase> load() {
+        List<Purchase> purchases = new ArrayList<>();
+        List<String> corruptPurchaseTokens = new ArrayList<>();
+        for (Map.Entry<String, ?> preference : preferences.getAll().entrySet()) {
+            try {
+                JSONObject entry = new JSONObject((String) preference.getValue());
+                purchases.add(new Purchase(entry.getString(KEY_ORIGINAL_JSON),
+                        entry.getString(KEY_SIGNATURE)));
+            } catch (JSONException | ClassCastException e) {
+                Log.e(TAG, "Dropping unreadable journal entry: " + e.getMessage());
+                corruptPurchaseTokens.add(preference.getKey());
+            }
+        }
+        if (!corruptPurchaseTokens.isEmpty()) {
+            SharedPreferences.Editor editor = preferences.edit();
+            for (String purchaseToken : corruptPurchaseTokens) {
+                editor.remove(purchaseToken);
+            }
+            editor.apply();
+        }
+        return purchases;
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+import android.os.Handler;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.Purchase;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a billing operation, such as a consume or an acknowledgement, on each purchase it is given.
+ * Purchases are keyed by purchase token, so a purchase that is enqueued several times is only
+ * worked on once at a time. At most maxConcurrent operations run in parallel, and operations that
+ * fail with a transient response code are retried with exponential backoff.
+ * <p>
+ * Every purchase waiting for its operation is kept in a PurchaseJournal until the operation
+ * completes and the listener has taken the purchase. If the process dies mid-operation, the queue
+ * picks the purchases back up from the journal when it is next created, without having to query
+ * Google Play for them again. Only OK and ITEM_NOT_OWNED take a purchase out of the journal;
+ * after any other error, the purchase is kept there for the next attempt.
+ * <p>
+ * The queue only dispatches operations between calls to start() and pause(), which track the
+ * connection to the billing service. The number of outstanding purchases, along with the purchase
+ * time of the oldest one, can be observed to catch a backlog.
+ */
+abstract class PurchaseRetryQueue {
+    /**
+     * Makes the queue retry an operation for as long as it takes.
+     */
+    static final int UNLIMITED_ATTEMPTS = Integer.MAX_VALUE;
+    /**
+     * Makes the queue run every ready operation at once.
+     */
+    static final int UNLIMITED_CONCURRENCY = Integer.MAX_VALUE;
+    private static final long RETRY_TIMER_START_MILLISECONDS = 1000L;
+    // keeps the backoff shift from overflowing when operations are retried indefinitely
+    private static final int MAX_RETRY_SHIFT = 20;
+
+    /**
+     * Receives the purchases whose operation has succeeded.
+     */
+    interface Listener {
+        /**
+         * @param purchase the purchase whose operation has succeeded
+         * @return false if the purchase can't be taken right now; it then stays in the journal and
+         * is handed over again later, without repeating the operation
+         */
+        boolean onPurchaseCompleted(@NonNull Purchase purchase);
+    }
+
+    /**
+     * Receives the result of an operation started by dispatch().
+     */
+    interface ResponseListener {
+        void onResponse(@NonNull BillingResult billingResult);
+    }
+
+    private final String tag;
+    private final String operationName;
+    private final PurchaseJournal journal;
+    private final Handler handler;
+    private final Listener listener;
+    private final int maxConcurrent;
+    private final int maxAttempts;
+    private final long retryMaxMilliseconds;
+    // every purchase whose operation hasn't completed yet, keyed by purchase token
+    private final Map<String, Purchase> outstandingPurchases = new HashMap<>();
+    // the attempts made so far, keyed by purchase token
+    private final Map<String, Integer> attempts = new HashMap<>();
+    // purchases that are ready to be dispatched
+    private final ArrayDeque<Purchase> readyPurchases = new ArrayDeque<>();
+    private final MutableLiveData<Integer> depth = new MutableLiveData<>();
+    private final MutableLiveData<Long> oldestPurchaseTime = new MutableLiveData<>();
+    private int operationsInFlight = 0;
+    private boolean started = false;
+
+    /**
+     * @param tag                  log tag of the queue
+     * @param operationName        name of the operation, used in log messages
+     * @param journal              journal that holds the outstanding purchases
+     * @param handler              handler used to schedule retries
+     * @param listener             receives the purchases whose operation has succeeded
+     * @param maxConcurrent        the most operations run in parallel, or UNLIMITED_CONCURRENCY
+     * @param maxAttempts          the attempts made before the queue gives up on a purchase until
+     *                             it is enqueued again, or UNLIMITED_ATTEMPTS
+     * @param retryMaxMilliseconds the longest the queue waits before retrying
+     */
+    PurchaseRetryQueue(@NonNull String tag, @NonNull String operationName,
+            @NonNull PurchaseJournal journal, @NonNull Handler handler,
+            @NonNull Listener listener, int maxConcurrent, int maxAttempts,
+            long retryMaxMilliseconds) {
+        this.tag = tag;
+        this.operationName = operationName;
+        this.journal = journal;
+        this.handler = handler;
+        this.listener = listener;
+        this.maxConcurrent = maxConcurrent;
+        this.maxAttempts = maxAttempts;
+        this.retryMaxMilliseconds = retryMaxMilliseconds;
+        for (Purchase purchase : journal.load()) {
+            outstandingPurchases.put(purchase.getPurchaseToken(), purchase);
+            readyPurchases.add(purchase);
+        }
+        if (!readyPurchases.isEmpty()) {
+            Log.d(tag, "Resuming " + readyPurchases.size() + " journaled " + operationName
+                    + "s.");
+        }
+        publishMetrics();
+    }
+
+    /**
+     * Starts the operation on a purchase. The result must be passed to the listener exactly once.
+     *
+     * @param purchase the purchase to work on
+     * @param listener receives the result of the operation
+     */
+    abstract void dispatch(@NonNull Purchase purchase, @NonNull ResponseListener listener);
+
+    /**
+     * Queues a purchase. Does nothing if the purchase is already queued.
+     *
+     * @param purchase the purchase to queue
+     */
+    void enqueue(@NonNull Purchase purchase) {
+        List<Purchase> purchases = new ArrayList<>(1);
+        purchases.add(purchase);
+        enqueueAll(purchases);
+    }
+
+    /**
+     * Queues purchases. Purchases that are already queued are skipped, and the others are
+     * journaled in a single write.
+     *
+     * @param purchases the purchases to queue, typically all found in a single refresh
+     */
+    synchronized void enqueueAll(@NonNull Collection<Purchase> purchases) {
+        List<Purchase> newPurchases = new ArrayList<>(purchases.size());
+        for (Purchase purchase : purchases) {
+            String purchaseToken = purchase.getPurchaseToken();
+            if (!outstandingPurchases.containsKey(purchaseToken)) {
+                outstandingPurchases.put(purchaseToken, purchase);
+                newPurchases.add(purchase);
+            }
+        }
+        if (newPurchases.isEmpty()) {
+            return;
+        }
+        journal.add(newPurchases);
+        readyPurchases.addAll(newPurchases);
+        publishMetrics();
+        drain();
+    }
+
+    /**
+     * Starts dispatching operations; called once the billing service is connected.
+     */
+    synchronized void start() {
+        started = true;
+        drain();
+    }
+
+    /**
+     * Stops dispatching operations; called when the billing service is disconnected. Purchases
+     * stay queued until the next call to start().
+     */
+    synchronized void pause() {
+        started = false;
+    }
+
+    /**
+     * @return a LiveData of the number of purchases waiting for their operation.
+     */
+    LiveData<Integer> getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return a LiveData of the purchase time, in milliseconds since the epoch, of the oldest
+     * purchase waiting for its operation, or 0 if there is none.
+     */
+    LiveData<Long> getOldestPurchaseTime() {
+        return oldestPurchaseTime;
+    }
+
+    private void drain() {
+        while (started && operationsInFlight < maxConcurrent && !readyPurchases.isEmpty()) {
+            final Purchase purchase = readyPurchases.poll();
+            operationsInFlight++;
+            dispatch(purchase, billingResult -> onResponse(purchase, billingResult));
+        }
+    }
+
+    private void onResponse(@NonNull Purchase purchase, @NonNull BillingResult billingResult) {
+        String purchaseToken = purchase.getPurchaseToken();
+        int responseCode = billingResult.getResponseCode();
+        boolean completed = false;
+        synchronized (this) {
+            operationsInFlight--;
+            switch (responseCode) {
+                case BillingClient.BillingResponseCode.OK:
+                    completed = true;
+                    break;
+                case BillingClient.BillingResponseCode.ITEM_NOT_OWNED:
+                    // the purchase has already been consumed, refunded or has expired, so there
+                    // is nothing left to do for it
+                    complete(purchaseToken);
+                    break;
+                case BillingClient.BillingResponseCode.SERVICE_TIMEOUT:
+                case BillingClient.BillingResponseCode.SERVICE_DISCONNECTED:
+                case BillingClient.BillingResponseCode.SERVICE_UNAVAILABLE:
+                case BillingClient.BillingResponseCode.ERROR:
+                    retry(purchase, billingResult);
+                    break;
+                default:
+                    // Retrying right away won't help, but nothing proves the operation is done
+                    // either, so the purchase stays in the journal.
+                    Log.e(tag, "Error in " + operationName + ": " + responseCode + " "
+                            + billingResult.getDebugMessage());
+                    release(purchaseToken);
+                    break;
+            }
+            drain();
+        }
+        if (completed) {
+            handOver(purchase, 1);
+        }
+    }
+
+    /**
+     * Hands a purchase whose operation has succeeded to the listener, and only then takes it out
+     * of the journal. While the listener is backed up, the hand-over is retried with the same
+     * backoff as the operation.
+     */
+    private void handOver(@NonNull Purchase purchase, int attempt) {
+        if (listener.onPurchaseCompleted(purchase)) {
+            synchronized (this) {
+                complete(purchase.getPurchaseToken());
+            }
+            return;
+        }
+        long retryMilliseconds = getRetryMilliseconds(attempt);
+        Log.w(tag, "Listener is backed up, handing over " + operationName + " again in "
+                + retryMilliseconds + "ms.");
+        handler.postDelayed(() -> handOver(purchase, attempt + 1), retryMilliseconds);
+    }
+
+    private void complete(@NonNull String purchaseToken) {
+        outstandingPurchases.remove(purchaseToken);
+        attempts.remove(purchaseToken);
+        journal.remove(purchaseToken);
+        publishMetrics();
+    }
+
+    /**
+     * Stops working on a purchase but leaves it in the journal, so that it is picked up again on
+     * the next start or the next time a purchase refresh finds it.
+     */
+    private void release(@NonNull String purchaseToken) {
+        outstandingPurchases.remove(purchaseToken);
+        attempts.remove(purchaseToken);
+        publishMetrics();
+    }
+
+    private void retry(@NonNull Purchase purchase, @NonNull BillingResult billingResult) {
+        String purchaseToken = purchase.getPurchaseToken();
+        Integer previousAttempts = attempts.get(purchaseToken);
+        int attempt = null == previousAttempts ? 1 : previousAttempts + 1;
+        if (attempt >= maxAttempts) {
+            Log.e(tag, "Giving up on " + operationName + " after " + attempt + " attempts: "
+                    + billingResult.getDebugMessage());
+            release(purchaseToken);
+            return;
+        }
+        attempts.put(purchaseToken, attempt);
+        long retryMilliseconds = getRetryMilliseconds(attempt);
+        Log.w(tag, "Retrying " + operationName + " in " + retryMilliseconds + "ms: "
+                + billingResult.getDebugMessage());
+        handler.postDelayed(() -> {
+            synchronized (PurchaseRetryQueue.this) {
+                if (outstandingPurchases.containsKey(purchaseToken)) {
+                    readyPurchases.add(purchase);
+                    drain();
+                }
+            }
+        }, retryMilliseconds);
+    }
+
+    private long getRetryMilliseconds(int attempt) {
+        return Math.min(RETRY_TIMER_START_MILLISECONDS << Math.min(attempt - 1, MAX_RETRY_SHIFT),
+                retryMaxMilliseconds);
+    }
+
+    private void publishMetrics() {
+        long oldest = 0;
+        for (Purchase purchase : outstandingPurchases.values()) {
+            long purchaseTime = purchase.getPurchaseTime();
+            if (0 == oldest || purchaseTime < oldest) {
+                oldest = purchaseTime;
+            }
+        }
+        depth.postValue(outstandingPurchases.size());
+        oldestPurchaseTime.postValue(oldest);
+    }
+}
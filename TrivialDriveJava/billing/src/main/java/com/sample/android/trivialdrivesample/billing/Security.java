@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sample.android.trivialdrivesample.billing;
+/*
+ * This class is an sample of how you can check to make sure your purchases on the device came
+ * from Google Play. Putting code like this on your server will provide additional protection.
+ * <p>
+ * One thing that you may also wish to consider doing is caching purchase IDs to make replay
+ * attacks harder. The reason this code isn't just part of the library is to allow
+ * you to customize it (and rename it!) to make generic patching exploits more difficult.
+ */
+
+import android.text.TextUtils;
+import android.util.Base64;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.android.billingclient.api.Purchase;
+
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Security-related methods. For a secure implementation, all of this code should be implemented on
+ * a server that communicates with the application on the device.
+ * <p>
+ * The public key is parsed once, when the BillingDataSource is created, and each thread keeps its
+ * own Signature instance, so verifying a purchase only costs the RSA operation itself.
+ */
+class Security {
+    static final private String TAG = "IABUtil/Security";
+    static final private String KEY_FACTORY_ALGORITHM = "RSA";
+    static final private String SIGNATURE_ALGORITHM = "SHA1withRSA";
+    // lists shorter than this aren't worth handing off to other threads
+    static final private int MIN_PURCHASES_PER_THREAD = 4;
+    static final private int VERIFICATION_THREADS =
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+    /**
+     * Holds the threads that verifyAll spreads large purchase lists across. The threads are only
+     * started the first time a large list is verified.
+     */
+    static private class ExecutorHolder {
+        static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(VERIFICATION_THREADS);
+    }
+
+    /**
+     * Signature instances can be reused once verify() has been called, but can't be shared across
+     * threads.
+     */
+    static final private ThreadLocal<Signature> SIGNATURE = new ThreadLocal<Signature>() {
+        @Override
+        protected Signature initialValue() {
+            try {
+                return Signature.getInstance(SIGNATURE_ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                // "SHA1withRSA" is guaranteed to be available.
+                throw new RuntimeException(e);
+            }
+        }
+    };
+
+    /**
+     * Parses the application's public key.
+     *
+     * @param base64EncodedPublicKey the Base64-encoded public key from the Google Play Console
+     * @return the key, or null if it is missing or can't be parsed
+     */
+    @Nullable
+    static PublicKey parsePublicKey(@Nullable String base64EncodedPublicKey) {
+        if (TextUtils.isEmpty(base64EncodedPublicKey)) {
+            return null;
+        }
+        try {
+            return generatePublicKey(base64EncodedPublicKey);
+        } catch (IOException e) {
+            Log.e(TAG, "Error generating PublicKey from encoded key: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Verifies that the data was signed with the given signature
+     *
+     * @param publicKey  public key associated with the developer account
+     * @param signedData the signed JSON string (signed, not encrypted)
+     * @param signature  the signature for the data, signed with the private key
+     */
+    static boolean verifyPurchase(@Nullable PublicKey publicKey, String signedData,
+            String signature) {
+        if ((TextUtils.isEmpty(signedData) || null == publicKey
+                || TextUtils.isEmpty(signature))
+        ) {
+            Log.w(TAG, "Purchase verification failed: missing data.");
+            return false;
+        }
+        return verify(publicKey, signedData, signature);
+    }
+
+    /**
+     * Verifies the signatures of a list of purchases. Large lists are split across several threads;
+     * the calling thread blocks until every purchase has been verified.
+     *
+     * @param publicKey public key associated with the developer account
+     * @param purchases the purchases to verify
+     * @return whether each purchase is correctly signed, in the same order as the purchases
+     */
+    @NonNull
+    static boolean[] verifyAll(@Nullable PublicKey publicKey, @NonNull List<Purchase> purchases) {
+        final int size = purchases.size();
+        final boolean[] results = new boolean[size];
+        // the calling thread verifies the first chunk itself
+        final int chunks = Math.min(VERIFICATION_THREADS + 1,
+                Math.max(1, size / MIN_PURCHASES_PER_THREAD));
+        final int chunkSize = (size + chunks - 1) / chunks;
+        List<Future<?>> futures = new ArrayList<>(chunks - 1);
+        for (int chunk = 1; chunk < chunks; chunk++) {
+            final int start = chunk * chunkSize;
+            final int end = Math.min(size, start + chunkSize);
+            futures.add(ExecutorHolder.EXECUTOR.submit(() ->
+                    verifyRange(publicKey, purchases, results, start, end)));
+        }
+        verifyRange(publicKey, purchases, results, 0, Math.min(size, chunkSize));
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // purchases that haven't been verified can't be trusted
+            return new boolean[size];
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        return results;
+    }
+
+    static private void verifyRange(@Nullable PublicKey publicKey,
+            @NonNull List<Purchase> purchases, @NonNull boolean[] results, int start, int end) {
+        for (int i = start; i < end; i++) {
+            Purchase purchase = purchases.get(i);
+            results[i] = verifyPurchase(publicKey, purchase.getOriginalJson(),
+                    purchase.getSignature());
+        }
+    }
+    /**
+     * Generates a PublicKey instance from a string containing the Base64-encoded public key.
+     *
+     * @param encodedPublicKey Base64-encoded public key
+     * @throws IOException if encoding algorithm is not supported or key specification
+     *                     is invalid
+     */
+    @VisibleForTesting
+    static PublicKey generatePublicKey(String encodedPublicKey) throws IOException {
+        try {
+            byte[] decodedKey = Base64.decode(encodedPublicKey, Base64.DEFAULT);
+            KeyFactory keyFactory = KeyFactory.getInstance(KEY_FACTORY_ALGORITHM);
+            return keyFactory.generatePublic(new X509EncodedKeySpec(decodedKey));
+        } catch (NoSuchAlgorithmException e) {
+            // "RSA" is guaranteed to be available.
+            throw new RuntimeException(e);
+        } catch (InvalidKeySpecException e) {
+            String msg = "Invalid key specification: " + e;
+            Log.w(TAG, msg);
+            throw new IOException(msg);
+        }
+    }
+
+    /**
+     * Verifies that the signature from the server matches the computed signature on the data.
+     * Returns true if the data is correctly signed.
+     *
+     * @param publicKey  public key associated with the developer account
+     * @param signedData signed data from server
+     * @param signature  server signature
+     * @return true if the data and signature match
+     */
+    static private Boolean verify(PublicKey publicKey, String signedData, String signature) {
+        byte[] signatureBytes;
+        try {
+            signatureBytes = Base64.decode(signature, Base64.DEFAULT);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Base64 decoding failed.");
+            return false;
+        }
+        try {
+            Signature signatureAlgorithm = SIGNATURE.get();
+            signatureAlgorithm.initVerify(publicKey);
+            signatureAlgorithm.update(signedData.getBytes());
+            if (!signatureAlgorithm.verify(signatureBytes)) {
+                Log.w(TAG, "Signature verification failed...");
+                return false;
+            }
+            return true;
+        } catch (InvalidKeyException e) {
+            Log.e(TAG, "Invalid key specification.");
+        } catch (SignatureException e) {
+            Log.e(TAG, "Signature exception.");
+        }
+        return false;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.SkuDetails;
+
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A small on-disk cache of the SkuDetails returned by Google Play. SkuDetails are stored as the
+ * original JSON from the Billing Library, which allows the BillingDataSource to emit prices and
+ * titles on a cold start before the first SkuDetails query has completed. Each SKU records when it
+ * was saved, since SKUs are queried, and go stale, separately.
+ */
+class SkuDetailsCache {
+    private static final String TAG = "TrivialDrive:" + SkuDetailsCache.class.getSimpleName();
+    private static final String PREFERENCES_NAME = "sku_details_cache";
+    private static final String KEY_SAVE_TIME_PREFIX = "save_time:";
+    private static final String KEY_SKU_PREFIX = "sku:";
+
+    private final SharedPreferences preferences;
+
+    SkuDetailsCache(@NonNull Context context) {
+        preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return the cached SkuDetails. Entries that can no longer be parsed are skipped.
+     */
+    @NonNull
+    List<SkuDetails> load() {
+        List<SkuDetails> skuDetailsList = new ArrayList<>();
+        for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+            if (!entry.getKey().startsWith(KEY_SKU_PREFIX)
+                    || !(entry.getValue() instanceof String)) {
+                continue;
+            }
+            try {
+                skuDetailsList.add(new SkuDetails((String) entry.getValue()));
+            } catch (JSONException e) {
+                Log.w(TAG, "Discarding cached SkuDetails for " + entry.getKey() + ": "
+                        + e.getMessage());
+            }
+        }
+        return skuDetailsList;
+    }
+
+    /**
+     * @param sku the SKU to get the save time of
+     * @return the wall clock time the SKU was last saved in milliseconds, or 0 if it wasn't.
+     */
+    long getSaveTime(@NonNull String sku) {
+        return preferences.getLong(KEY_SAVE_TIME_PREFIX + sku, 0L);
+    }
+
+    /**
+     * Stores the SkuDetails from a successful query. The write happens asynchronously.
+     *
+     * @param skuDetailsList the SkuDetails returned by Google Play
+     */
+    void save(@NonNull List<SkuDetails> skuDetailsList) {
+        SharedPreferences.Editor editor = preferences.edit();
+        long saveTime = System.currentTimeMillis();
+        for (SkuDetails skuDetails : skuDetailsList) {
+            editor.putString(KEY_SKU_PREFIX + skuDetails.getSku(), skuDetails.getOriginalJson());
+            editor.putLong(KEY_SAVE_TIME_PREFIX + skuDetails.getSku(), saveTime);
+        }
+        editor.apply();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sample.android.trivialdrivesample.billing;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns every known SKU a small ordinal, so that per-SKU state can be kept in arrays indexed by
+ * ordinal rather than in a map of objects per SKU. The table is fixed once it is built.
+ */
+class SkuTable {
+    static final int UNKNOWN_SKU = -1;
+
+    private final String[] skus;
+    private final Map<String, Integer> ordinals;
+
+    /**
+     * @param skuLists the known SKUs. A SKU that appears more than once is given a single ordinal.
+     */
+    @SafeVarargs
+    SkuTable(@NonNull List<String>... skuLists) {
+        int capacity = 0;
+        for (List<String> skuList : skuLists) {
+            capacity += skuList.size();
+        }
+        ordinals = new HashMap<>(capacity * 4 / 3 + 1);
+        String[] skus = new String[capacity];
+        int size = 0;
+        for (List<String> skuList : skuLists) {
+            for (String sku : skuList) {
+                if (!ordinals.containsKey(sku)) {
+                    ordinals.put(sku, size);
+                    skus[size++] = sku;
+                }
+            }
+        }
+        this.skus = size == capacity ? skus : Arrays.copyOf(skus, size);
+    }
+
+    /**
+     * @return the number of known SKUs; ordinals run from 0 to size() - 1
+     */
+    int size() {
+        return skus.length;
+    }
+
+    /**
+     * @param sku the SKU to look up
+     * @return the ordinal of the SKU, or UNKNOWN_SKU if it isn't known
+     */
+    int ordinal(@NonNull String sku) {
+        Integer ordinal = ordinals.get(sku);
+        return null == ordinal ? UNKNOWN_SKU : ordinal;
+    }
+
+    /**
+     * @param sku the SKU to look up
+     * @return true if the SKU is known
+     */
+    boolean contains(@NonNull String sku) {
+        return ordinals.containsKey(sku);
+    }
+
+    /**
+     * @param ordinal the ordinal of a known SKU
+     * @return the SKU with the ordinal
+     */
+    @NonNull
+    String sku(int ordinal) {
+        return skus[ordinal];
+    }
+}
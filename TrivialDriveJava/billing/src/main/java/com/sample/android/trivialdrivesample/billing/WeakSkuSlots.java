@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sample.android.trivialdrivesample.billing;
+
+import androidx.annotation.NonNull;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * One weakly held object per SKU ordinal, created the first time it is asked for. Once nothing
+ * else references an object it can be garbage collected, and it is created again the next time it
+ * is needed. This keeps the per-SKU observables of a large catalog from staying on the heap after
+ * the UI that observed them is gone.
+ *
+ * @param <T> the type of the objects
+ */
+class WeakSkuSlots<T> {
+    /**
+     * Creates the object for a SKU.
+     */
+    interface Factory<T> {
+        @NonNull
+        T create(int ordinal);
+    }
+
+    private final WeakReference<?>[] slots;
+    private final Factory<T> factory;
+
+    /**
+     * @param size    the number of SKU ordinals
+     * @param factory creates the object for a SKU the first time it is needed
+     */
+    WeakSkuSlots(int size, @NonNull Factory<T> factory) {
+        this.slots = new WeakReference<?>[size];
+        this.factory = factory;
+    }
+
+    /**
+     * @param ordinal the ordinal of the SKU
+     * @return the object for the SKU, creating it if it doesn't exist or has been collected
+     */
+    @NonNull
+    @SuppressWarnings("unchecked")
+    synchronized T get(int ordinal) {
+        WeakReference<?> slot = slots[ordinal];
+        T value = null == slot ? null : (T) slot.get();
+        if (null == value) {
+            value = factory.create(ordinal);
+            slots[ordinal] = new WeakReference<>(value);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sample.android.trivialdrivesample.billing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.app.Application;
+import android.os.Looper;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.Observer;
+import androidx.test.core.app.ApplicationProvider;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.Purchase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Runs the BillingDataSource against a FakeBillingClient with thousands of synthetic purchases,
+ * random latency and transient failures, and checks that every purchase ends up consumed or
+ * acknowledged.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(application = Application.class, sdk = 28)
+public class BillingDataSourceLoadTest {
+    private static final String SKU_GAS = "gas";
+    private static final String SKU_PREMIUM = "premium";
+    private static final String SKU_INFINITE_GAS_MONTHLY = "infinite_gas_monthly";
+    private static final String[] INAPP_SKUS = new String[]{SKU_GAS, SKU_PREMIUM};
+    private static final String[] SUBSCRIPTION_SKUS = new String[]{SKU_INFINITE_GAS_MONTHLY};
+    private static final String[] AUTO_CONSUME_SKUS = new String[]{SKU_GAS};
+    private static final long TIMEOUT_MILLISECONDS = 60000L;
+
+    private FakeBillingClient fakeBillingClient;
+    private PublicKey publicKey;
+
+    /**
+     * Something to wait for.
+     */
+    private interface Condition {
+        boolean isMet();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        KeyPair keyPair = keyPairGenerator.generateKeyPair();
+        publicKey = keyPair.getPublic();
+        fakeBillingClient = new FakeBillingClient(42L, keyPair);
+        fakeBillingClient.addSkuDetails(BillingClient.SkuType.INAPP, INAPP_SKUS);
+        fakeBillingClient.addSkuDetails(BillingClient.SkuType.SUBS, SUBSCRIPTION_SKUS);
+    }
+
+    @Test
+    public void consumesAndAcknowledgesThousandsOfPurchases() throws Exception {
+        for (FakeBillingClient.Call call : FakeBillingClient.Call.values()) {
+            fakeBillingClient.setLatency(call, FakeBillingClient.uniformLatency(5, 50));
+        }
+        fakeBillingClient.setFailureRate(FakeBillingClient.Call.ACKNOWLEDGE,
+                BillingClient.BillingResponseCode.SERVICE_UNAVAILABLE, 0.1);
+        fakeBillingClient.setFailureRate(FakeBillingClient.Call.CONSUME,
+                BillingClient.BillingResponseCode.ERROR, 0.05);
+        fakeBillingClient.addPurchases(BillingClient.SkuType.INAPP, SKU_GAS, 1000,
+                Purchase.PurchaseState.PURCHASED, false);
+        fakeBillingClient.addPurchases(BillingClient.SkuType.INAPP, SKU_PREMIUM, 2000,
+                Purchase.PurchaseState.PURCHASED, false);
+        fakeBillingClient.addPurchases(BillingClient.SkuType.SUBS, SKU_INFINITE_GAS_MONTHLY, 2000,
+                Purchase.PurchaseState.PURCHASED, true);
+
+        BillingDataSource billingDataSource = newBillingDataSource();
+        LiveData<Boolean> premiumPurchased = observe(billingDataSource.isPurchased(SKU_PREMIUM));
+        LiveData<Boolean> subscribed = observe(
+                billingDataSource.isPurchased(SKU_INFINITE_GAS_MONTHLY));
+        // every consumed gas purchase has to be delivered, however many arrive together
+        int[] consumedGas = new int[1];
+        billingDataSource.observeConsumedPurchases().subscribe(purchases -> {
+            for (List<String> skus : purchases) {
+                if (skus.contains(SKU_GAS)) {
+                    consumedGas[0]++;
+                }
+            }
+        });
+        // the new purchase stream is bounded, so it has to be drained for purchases to complete
+        billingDataSource.observeNewPurchases().subscribe(purchases -> {
+        });
+
+        idleUntil("every purchase to be consumed or acknowledged", () -> {
+            for (Purchase purchase :
+                    fakeBillingClient.getOwnedPurchases(BillingClient.SkuType.INAPP)) {
+                if (!purchase.isAcknowledged()) {
+                    return false;
+                }
+            }
+            return Boolean.TRUE.equals(premiumPurchased.getValue()) && consumedGas[0] == 1000;
+        });
+        assertEquals(2000,
+                fakeBillingClient.getOwnedPurchases(BillingClient.SkuType.INAPP).size());
+        assertTrue(Boolean.TRUE.equals(subscribed.getValue()));
+        assertEquals(0, fakeBillingClient.getDisconnectedCallCount());
+        // the subscriptions were already acknowledged
+        assertTrue(fakeBillingClient.getCallCount(FakeBillingClient.Call.ACKNOWLEDGE) < 4000);
+    }
+
+    @Test
+    public void reconnectsAndRunsQueuedOperations() throws Exception {
+        for (FakeBillingClient.Call call : FakeBillingClient.Call.values()) {
+            fakeBillingClient.setLatency(call, FakeBillingClient.fixedLatency(10));
+        }
+        fakeBillingClient.failNext(FakeBillingClient.Call.START_CONNECTION,
+                BillingClient.BillingResponseCode.SERVICE_UNAVAILABLE, 5);
+        fakeBillingClient.addPurchases(BillingClient.SkuType.INAPP, SKU_PREMIUM, 10,
+                Purchase.PurchaseState.PURCHASED, true);
+
+        BillingDataSource billingDataSource = newBillingDataSource();
+        LiveData<Boolean> premiumPurchased = observe(billingDataSource.isPurchased(SKU_PREMIUM));
+        idleUntil("the first connection", () -> Boolean.TRUE.equals(premiumPurchased.getValue()));
+        assertEquals(6, fakeBillingClient.getCallCount(FakeBillingClient.Call.START_CONNECTION));
+
+        // a refresh issued while disconnected waits for the connection to come back
+        int purchaseQueries =
+                fakeBillingClient.getCallCount(FakeBillingClient.Call.QUERY_PURCHASES);
+        fakeBillingClient.failNext(FakeBillingClient.Call.START_CONNECTION,
+                BillingClient.BillingResponseCode.SERVICE_UNAVAILABLE, 3);
+        fakeBillingClient.disconnect();
+        shadowOf(Looper.getMainLooper()).idle();
+        billingDataSource.refreshPurchasesAsync();
+        idleUntil("the reconnection", () ->
+                fakeBillingClient.getCallCount(FakeBillingClient.Call.START_CONNECTION) == 10
+                        && fakeBillingClient.getCallCount(
+                        FakeBillingClient.Call.QUERY_PURCHASES) > purchaseQueries);
+        // nothing was sent to the billing client while it was disconnected
+        assertEquals(0, fakeBillingClient.getDisconnectedCallCount());
+    }
+
+    private BillingDataSource newBillingDataSource() {
+        Application application = ApplicationProvider.getApplicationContext();
+        return new BillingDataSource(application, INAPP_SKUS, SUBSCRIPTION_SKUS,
+                AUTO_CONSUME_SKUS, 20, fakeBillingClient.asFactory(), publicKey);
+    }
+
+    private static <T> LiveData<T> observe(LiveData<T> liveData) {
+        Observer<T> observer = value -> {
+        };
+        liveData.observeForever(observer);
+        return liveData;
+    }
+
+    /**
+     * Runs the main looper, advancing the simulated clock, until the condition is met. Billing
+     * callbacks are handled on the billing thread, so this also waits in real time.
+     */
+    private static void idleUntil(String what, Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLISECONDS;
+        while (!condition.isMet()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out waiting for " + what);
+            }
+            shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(100));
+            Thread.sleep(1);
+        }
+    }
+}